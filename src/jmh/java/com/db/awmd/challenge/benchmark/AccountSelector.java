@@ -0,0 +1,62 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.Random;
+
+/**
+ * Pre-computed sequence of account indexes, either uniformly distributed or Zipf distributed
+ * (a few accounts get most of the traffic). Sampling is done up front so the benchmark loop
+ * only reads an int array.
+ */
+final class AccountSelector {
+
+	private static final int SAMPLES = 1 << 20;
+
+	private final int[] samples = new int[SAMPLES];
+
+	AccountSelector(String distribution, int accounts, long seed) {
+		Random random = new Random(seed);
+		if ("zipf".equals(distribution)) {
+			double[] cumulative = zipfCumulative(accounts, 1.0);
+			for (int i = 0; i < SAMPLES; i++) {
+				samples[i] = search(cumulative, random.nextDouble());
+			}
+		} else if ("uniform".equals(distribution)) {
+			for (int i = 0; i < SAMPLES; i++) {
+				samples[i] = random.nextInt(accounts);
+			}
+		} else {
+			throw new IllegalArgumentException("unknown distribution " + distribution);
+		}
+	}
+
+	int get(int sequence) {
+		return samples[sequence & (SAMPLES - 1)];
+	}
+
+	private static double[] zipfCumulative(int accounts, double exponent) {
+		double[] cumulative = new double[accounts];
+		double sum = 0;
+		for (int rank = 0; rank < accounts; rank++) {
+			sum += 1 / Math.pow(rank + 1, exponent);
+			cumulative[rank] = sum;
+		}
+		for (int rank = 0; rank < accounts; rank++) {
+			cumulative[rank] /= sum;
+		}
+		return cumulative;
+	}
+
+	private static int search(double[] cumulative, double value) {
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulative[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
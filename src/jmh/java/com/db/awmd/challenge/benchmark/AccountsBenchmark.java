@@ -0,0 +1,115 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.BenchmarkRepositories;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+/**
+ * createAccount and getAccount throughput of the in-memory repository, getAccount also while
+ * transfers keep changing the accounts that are read
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountsBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Accounts {
+
+		@Param({ "100000" })
+		int accounts;
+
+		AccountsRepository repository;
+
+		NotificationDispatcher dispatcher;
+
+		String[] accountIds;
+
+		// transfers in a circle over the first accounts, so the balances stay put while they keep changing
+		UserTransaction[] transfers;
+
+		final AtomicInteger created = new AtomicInteger();
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			dispatcher = BenchmarkRepositories.silentDispatcher();
+			repository = BenchmarkRepositories.inMemory(1024, dispatcher);
+			accountIds = new String[accounts];
+			for (int i = 0; i < accounts; i++) {
+				accountIds[i] = "Id-" + i;
+				repository.createAccount(new Account(accountIds[i], BigDecimal.TEN));
+			}
+			transfers = new UserTransaction[8];
+			for (int i = 0; i < transfers.length; i++) {
+				transfers[i] = new UserTransaction(accountIds[i], accountIds[(i + 1) % transfers.length], new BigDecimal("0.01"));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws InterruptedException {
+			dispatcher.stop();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int sequence;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			sequence = ThreadLocalRandom.current().nextInt();
+		}
+	}
+
+	@Benchmark
+	public Account getAccount(Accounts accounts, Cursor cursor) {
+		return accounts.repository.getAccount(accounts.accountIds[(cursor.sequence++ & Integer.MAX_VALUE) % accounts.accounts]);
+	}
+
+	@Benchmark
+	@Group("readWhileTransferring")
+	@GroupThreads(3)
+	public Account readDuringTransfers(Accounts accounts, Cursor cursor) {
+		return accounts.repository.getAccount(accounts.accountIds[cursor.sequence++ & 7]);
+	}
+
+	@Benchmark
+	@Group("readWhileTransferring")
+	@GroupThreads(1)
+	public void transferBetweenReadAccounts(Accounts accounts, Cursor cursor) {
+		int from = cursor.sequence++ & 7;
+		accounts.repository.performTransaction(accounts.transfers[from]);
+	}
+
+	@Benchmark
+	public void createAccount(Accounts accounts) {
+		//new ids keep growing the map, which is part of what creating accounts costs
+		accounts.repository.createAccount(new Account("New-" + accounts.created.incrementAndGet()));
+	}
+}
@@ -0,0 +1,38 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count with the gc profiler, so every result
+ * file holds throughput and allocation rate (gc.alloc.rate.norm = bytes per operation).
+ *
+ * arguments: include regex, comma separated thread counts, result directory
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : ".*";
+		String threadCounts = args.length > 1 ? args[1] : "1,2,4,8,16,32,64";
+		File resultDirectory = new File(args.length > 2 ? args[2] : "build/reports/jmh");
+		resultDirectory.mkdirs();
+
+		for (String threadCount : threadCounts.split(",")) {
+			int threads = Integer.parseInt(threadCount.trim());
+			Options options = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(resultDirectory, "results-" + threads + "-threads.json").getPath())
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
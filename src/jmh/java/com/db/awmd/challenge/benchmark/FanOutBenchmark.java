@@ -0,0 +1,123 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.BenchmarkRepositories;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+/**
+ * payouts per second from a few payer accounts to many payees, one transfer per leg against one
+ * multi-leg transfer per payout, thread count is set by the runner
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark {
+
+	private static final int PAYOUTS = 1 << 10;
+
+	@State(Scope.Benchmark)
+	public static class Payouts {
+
+		@Param({ "10", "100" })
+		int legs;
+
+		@Param({ "4" })
+		int payers;
+
+		@Param({ "10000" })
+		int payees;
+
+		@Param({ "1024" })
+		int lockStripes;
+
+		AccountsRepository repository;
+
+		NotificationDispatcher dispatcher;
+
+		UserTransaction[][] separate;
+
+		MultiLegTransaction[] multiLeg;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			dispatcher = BenchmarkRepositories.silentDispatcher();
+			repository = BenchmarkRepositories.inMemory(lockStripes, dispatcher);
+			for (int i = 0; i < payers + payees; i++) {
+				Account account = new Account((i < payers ? "Payer-" : "Id-") + (i < payers ? i : i - payers));
+				//large enough that no payout fails during a run
+				account.setMinorBalance(Long.MAX_VALUE / 4);
+				repository.createAccount(account);
+			}
+
+			//the same payouts in both shapes, built up front
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			BigDecimal amount = new BigDecimal("0.01");
+			separate = new UserTransaction[PAYOUTS][];
+			multiLeg = new MultiLegTransaction[PAYOUTS];
+			for (int i = 0; i < PAYOUTS; i++) {
+				String payer = "Payer-" + (i % payers);
+				List<MultiLegTransaction.Leg> payout = new ArrayList<>(legs);
+				separate[i] = new UserTransaction[legs];
+				for (int leg = 0; leg < legs; leg++) {
+					String payee = "Id-" + random.nextInt(payees);
+					payout.add(new MultiLegTransaction.Leg(payee, amount));
+					separate[i][leg] = new UserTransaction(payer, payee, amount);
+				}
+				multiLeg[i] = new MultiLegTransaction(payer, null, payout);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws InterruptedException {
+			dispatcher.stop();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int sequence;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			sequence = ThreadLocalRandom.current().nextInt(PAYOUTS);
+		}
+	}
+
+	@Benchmark
+	public void transferPerLeg(Payouts payouts, Cursor cursor) {
+		for (UserTransaction transaction : payouts.separate[cursor.sequence++ & (PAYOUTS - 1)]) {
+			payouts.repository.performTransaction(transaction);
+		}
+	}
+
+	@Benchmark
+	public void multiLegTransfer(Payouts payouts, Cursor cursor) {
+		payouts.repository.performMultiLegTransaction(payouts.multiLeg[cursor.sequence++ & (PAYOUTS - 1)]);
+	}
+}
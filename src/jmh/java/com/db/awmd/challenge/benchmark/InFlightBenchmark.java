@@ -0,0 +1,145 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.BenchmarkRepositories;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.VirtualThreads;
+
+/**
+ * transfers per second with up to inFlight requests open at once, each one a transfer followed by
+ * blockMillis of blocking like a slow notification or downstream call, run on a pool of
+ * platformThreads like the tomcat workers or on a virtual thread per request. By Little's law the
+ * requests actually in flight are the score times blockMillis / 1000, the platform pool stops at
+ * platformThreads of them. The virtual runs need Java 21 and fail on older runtimes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InFlightBenchmark {
+
+	private static final int TRANSACTIONS = 1 << 16;
+
+	@State(Scope.Benchmark)
+	public static class Requests {
+
+		@Param({ "platform", "virtual" })
+		String threads;
+
+		@Param({ "200", "2000", "10000" })
+		int inFlight;
+
+		@Param({ "10" })
+		int blockMillis;
+
+		//tomcat's default max-threads
+		@Param({ "200" })
+		int platformThreads;
+
+		@Param({ "10000" })
+		int accounts;
+
+		AccountsRepository repository;
+
+		NotificationDispatcher dispatcher;
+
+		ExecutorService executor;
+
+		Semaphore window;
+
+		UserTransaction[] transactions;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			if ("virtual".equals(threads)) {
+				executor = VirtualThreads.newPerTaskExecutor("request-");
+			} else {
+				executor = Executors.newFixedThreadPool(platformThreads);
+			}
+			window = new Semaphore(inFlight);
+			dispatcher = BenchmarkRepositories.silentDispatcher();
+			repository = BenchmarkRepositories.inMemory(1024, dispatcher);
+			for (int i = 0; i < accounts; i++) {
+				Account account = new Account("Id-" + i);
+				//large enough that no transfer fails during a run
+				account.setMinorBalance(Long.MAX_VALUE / 4);
+				repository.createAccount(account);
+			}
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			transactions = new UserTransaction[TRANSACTIONS];
+			for (int i = 0; i < TRANSACTIONS; i++) {
+				int from = random.nextInt(accounts);
+				int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+				transactions[i] = new UserTransaction("Id-" + from, "Id-" + to, BigDecimal.ONE);
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void drain() throws InterruptedException {
+			//the next iteration starts with an empty window
+			window.acquire(inFlight);
+			window.release(inFlight);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws InterruptedException {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+			dispatcher.stop();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int sequence;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			sequence = ThreadLocalRandom.current().nextInt(TRANSACTIONS);
+		}
+	}
+
+	/**
+	 * admits one request once there is room in the window, the score is the rate requests complete at
+	 */
+	@Benchmark
+	public void request(Requests requests, Cursor cursor) throws InterruptedException {
+		UserTransaction transaction = requests.transactions[cursor.sequence++ & (TRANSACTIONS - 1)];
+		requests.window.acquire();
+		requests.executor.execute(() -> {
+			try {
+				requests.repository.performTransaction(transaction);
+				Thread.sleep(requests.blockMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				requests.window.release();
+			}
+		});
+	}
+}
@@ -0,0 +1,99 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Jackson (de)serialisation of the request and response bodies, as json and as smile
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final ObjectReader accountReader = objectMapper.readerFor(Account.class);
+
+	private final ObjectWriter accountWriter = objectMapper.writerFor(Account.class);
+
+	private final ObjectReader transactionReader = objectMapper.readerFor(UserTransaction.class);
+
+	private final ObjectWriter transactionWriter = objectMapper.writerFor(UserTransaction.class);
+
+	private final Account account = new Account("Id-123", new BigDecimal("1234.56"));
+
+	private final UserTransaction transaction = new UserTransaction("Id-123", "Id-456", new BigDecimal("12.34"));
+
+	private final byte[] accountJson = "{\"accountId\":\"Id-123\",\"balance\":1234.56}".getBytes();
+
+	private final byte[] transactionJson = "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"amount\":12.34}"
+			.getBytes();
+
+	private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
+	private final ObjectReader smileTransactionReader = smileMapper.readerFor(UserTransaction.class);
+
+	private final ObjectWriter smileAccountWriter = smileMapper.writerFor(Account.class);
+
+	private final byte[] transactionSmile;
+
+	public JsonBenchmark() {
+		try {
+			transactionSmile = smileMapper.writeValueAsBytes(transaction);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Benchmark
+	public Account readAccount() throws IOException {
+		return accountReader.readValue(accountJson);
+	}
+
+	@Benchmark
+	public byte[] writeAccount() throws IOException {
+		return accountWriter.writeValueAsBytes(account);
+	}
+
+	@Benchmark
+	public UserTransaction readUserTransaction() throws IOException {
+		return transactionReader.readValue(transactionJson);
+	}
+
+	@Benchmark
+	public byte[] writeUserTransaction() throws IOException {
+		return transactionWriter.writeValueAsBytes(transaction);
+	}
+
+	@Benchmark
+	public UserTransaction readUserTransactionSmile() throws IOException {
+		return smileTransactionReader.readValue(transactionSmile);
+	}
+
+	@Benchmark
+	public byte[] writeAccountSmile() throws IOException {
+		return smileAccountWriter.writeValueAsBytes(account);
+	}
+}
@@ -0,0 +1,140 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositorySequenced;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.repository.BenchmarkRepositories;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+/**
+ * performTransaction throughput with the account pairs drawn uniformly or Zipf-skewed, thread count is set by the runner
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+	private static final int TRANSACTIONS = 1 << 18;
+
+	@State(Scope.Benchmark)
+	public static class Accounts {
+
+		@Param({ "memory", "sequencer", "sharded", "offheap" })
+		String mode;
+
+		@Param({ "uniform", "zipf" })
+		String distribution;
+
+		@Param({ "10000" })
+		int accounts;
+
+		@Param({ "1024" })
+		int lockStripes;
+
+		//the first accounts get most of the zipf traffic, that many of them have their balance sharded
+		@Param({ "0", "16" })
+		int hotAccounts;
+
+		@Param({ "8" })
+		int hotAccountShards;
+
+		@Param({ "4" })
+		int sequencerPartitions;
+
+		@Param({ "0" })
+		int shards;
+
+		AccountsRepository repository;
+
+		NotificationDispatcher dispatcher;
+
+		UserTransaction[] transactions;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			dispatcher = BenchmarkRepositories.silentDispatcher();
+			StringBuilder hotAccountIds = new StringBuilder();
+			for (int i = 0; i < hotAccounts; i++) {
+				hotAccountIds.append(i == 0 ? "" : ",").append("Id-").append(i);
+			}
+			if ("sequencer".equals(mode)) {
+				repository = BenchmarkRepositories.sequenced(sequencerPartitions, 1 << 16, dispatcher);
+			} else if ("sharded".equals(mode)) {
+				repository = BenchmarkRepositories.sharded(shards, dispatcher);
+			} else if ("offheap".equals(mode)) {
+				repository = BenchmarkRepositories.offHeap(lockStripes, accounts * 2L, dispatcher);
+			} else {
+				repository = BenchmarkRepositories.inMemory(lockStripes, hotAccountIds.toString(), hotAccountShards,
+						dispatcher);
+			}
+			for (int i = 0; i < accounts; i++) {
+				Account account = new Account("Id-" + i);
+				//large enough that no transfer fails during a run
+				account.setMinorBalance(Long.MAX_VALUE / 4);
+				repository.createAccount(account);
+			}
+
+			//transfers are built up front so the measured loop does not allocate ids or amounts
+			AccountSelector selector = new AccountSelector(distribution, accounts, 42);
+			BigDecimal amount = new BigDecimal("0.01");
+			transactions = new UserTransaction[TRANSACTIONS];
+			for (int i = 0; i < TRANSACTIONS; i++) {
+				int from = selector.get(2 * i);
+				int to = selector.get(2 * i + 1);
+				if (from == to) {
+					to = (to + 1) % accounts;
+				}
+				transactions[i] = new UserTransaction("Id-" + from, "Id-" + to, amount);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws InterruptedException {
+			if (repository instanceof AccountsRepositorySequenced) {
+				((AccountsRepositorySequenced) repository).close();
+			} else if (repository instanceof AccountsRepositorySharded) {
+				((AccountsRepositorySharded) repository).close();
+			}
+			dispatcher.stop();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int sequence;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			//every thread walks the shared transfers from its own offset
+			sequence = ThreadLocalRandom.current().nextInt(TRANSACTIONS);
+		}
+	}
+
+	@Benchmark
+	public void performTransaction(Accounts accounts, Cursor cursor) {
+		accounts.repository.performTransaction(accounts.transactions[cursor.sequence++ & (TRANSACTIONS - 1)]);
+	}
+}
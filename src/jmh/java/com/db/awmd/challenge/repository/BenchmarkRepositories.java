@@ -0,0 +1,62 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+/**
+ * wires repositories for benchmarks without starting spring, lives in this package to reach the injected fields
+ */
+public final class BenchmarkRepositories {
+
+	private BenchmarkRepositories() {
+	}
+
+	public static AccountsRepositoryInMemory inMemory(int lockStripes, NotificationDispatcher notificationDispatcher) {
+		return inMemory(lockStripes, "", 1, notificationDispatcher);
+	}
+
+	public static AccountsRepositoryInMemory inMemory(int lockStripes, String hotAccountIds, int hotAccountShards,
+			NotificationDispatcher notificationDispatcher) {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(lockStripes, hotAccountIds, hotAccountShards);
+		repository.notificationDispatcher = notificationDispatcher;
+		repository.transferMetrics = new TransferMetrics(notificationDispatcher);
+		repository.transactionLedger = new TransactionLedger(1000);
+		return repository;
+	}
+
+	public static AccountsRepositorySequenced sequenced(int partitions, int ringSize,
+			NotificationDispatcher notificationDispatcher) {
+		AccountsRepositorySequenced repository = new AccountsRepositorySequenced(partitions, ringSize);
+		repository.notificationDispatcher = notificationDispatcher;
+		repository.transferMetrics = new TransferMetrics(notificationDispatcher);
+		repository.transactionLedger = new TransactionLedger(1000);
+		return repository;
+	}
+
+	public static AccountsRepositorySharded sharded(int shards, NotificationDispatcher notificationDispatcher) {
+		AccountsRepositorySharded repository = new AccountsRepositorySharded(shards);
+		repository.notificationDispatcher = notificationDispatcher;
+		repository.transferMetrics = new TransferMetrics(notificationDispatcher);
+		repository.transactionLedger = new TransactionLedger(1000);
+		return repository;
+	}
+
+	public static AccountsRepositoryOffHeap offHeap(int lockStripes, long capacity,
+			NotificationDispatcher notificationDispatcher) {
+		AccountsRepositoryOffHeap repository = new AccountsRepositoryOffHeap(lockStripes, capacity, false);
+		repository.notificationDispatcher = notificationDispatcher;
+		repository.transferMetrics = new TransferMetrics(notificationDispatcher);
+		repository.transactionLedger = new TransactionLedger(1000);
+		return repository;
+	}
+
+	/**
+	 * dispatcher that drops every notification on the floor, so the benchmarks measure the transfer and not the logging
+	 */
+	public static NotificationDispatcher silentDispatcher() {
+		NotificationDispatcher dispatcher = new NotificationDispatcher((account, description) -> {
+		}, 1 << 16, 256, NotificationDispatcher.OverflowPolicy.DROP, false);
+		dispatcher.start();
+		return dispatcher;
+	}
+}
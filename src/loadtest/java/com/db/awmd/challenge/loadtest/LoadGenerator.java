@@ -0,0 +1,192 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Open loop load: requests are scheduled at a fixed rate no matter how fast the service
+ * answers. Each request has the time it was meant to be sent and its latency is measured
+ * from there, not from the moment a client thread got around to send it. A stalled service
+ * therefore shows up with the full delay of every request that queued up behind the stall,
+ * instead of one slow request (coordinated omission).
+ */
+final class LoadGenerator {
+
+	static final String ACCOUNT_PREFIX = "LT-";
+
+	static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+	static final BigDecimal CREATED_BALANCE = new BigDecimal(100);
+
+	private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+	enum Operation {
+		CREATE, GET, TRANSFER
+	}
+
+	static final class OperationStats {
+
+		final Recorder latency = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+
+		// 2xx
+		final LongAdder succeeded = new LongAdder();
+
+		// 400, e.g. insufficient balance, expected under random transfers
+		final LongAdder refused = new LongAdder();
+
+		// 503 from admission control
+		final LongAdder shed = new LongAdder();
+
+		// any other status or an io error
+		final LongAdder failed = new LongAdder();
+
+		Histogram histogram;
+	}
+
+	private final LoadTestClient client;
+
+	private final LoadTestOptions options;
+
+	private final SkewedSelector selector;
+
+	private final Operation[] mix;
+
+	private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+	// ids handed out to create requests, answered or not
+	private final AtomicLong createAttempts = new AtomicLong();
+
+	private long maxBacklog;
+
+	LoadGenerator(LoadTestClient client, LoadTestOptions options) {
+		this.client = client;
+		this.options = options;
+		this.selector = new SkewedSelector(options.accounts, options.skew);
+		this.mix = options.mix();
+		for (Operation operation : Operation.values()) {
+			stats.put(operation, new OperationStats());
+		}
+	}
+
+	/**
+	 * creates the accounts transfers are drawn from, in chunks through the import endpoint
+	 */
+	void preload() throws IOException {
+		int chunk = 10000;
+		for (int first = 0; first < options.accounts; first += chunk) {
+			StringBuilder body = new StringBuilder();
+			for (int i = first; i < Math.min(options.accounts, first + chunk); i++) {
+				body.append("{\"accountId\":\"").append(ACCOUNT_PREFIX).append(i).append("\",\"balance\":")
+						.append(INITIAL_BALANCE).append("}\n");
+			}
+			LoadTestClient.Response response = client.post("/v1/accounts/import", "application/x-ndjson", body.toString());
+			if (response.status != 200) {
+				throw new IllegalStateException("preload failed with " + response.status + ": " + response.text());
+			}
+		}
+	}
+
+	void run() throws InterruptedException {
+		ExecutorService workers = Executors.newFixedThreadPool(options.threads);
+		AtomicLong backlog = new AtomicLong();
+		long interval = TimeUnit.SECONDS.toNanos(1) / options.rate;
+		long start = System.nanoTime();
+		long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+		for (long sequence = 0;; sequence++) {
+			long intended = start + sequence * interval;
+			if (intended >= end) {
+				break;
+			}
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			Operation operation = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+			boolean measured = intended >= measureFrom;
+			maxBacklog = Math.max(maxBacklog, backlog.incrementAndGet());
+			workers.execute(() -> {
+				try {
+					issue(operation, intended, measured);
+				} finally {
+					backlog.decrementAndGet();
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(5, TimeUnit.MINUTES);
+		for (OperationStats operationStats : stats.values()) {
+			operationStats.histogram = operationStats.latency.getIntervalHistogram();
+		}
+	}
+
+	private void issue(Operation operation, long intended, boolean measured) {
+		OperationStats operationStats = stats.get(operation);
+		int status;
+		try {
+			status = send(operation);
+		} catch (IOException e) {
+			status = -1;
+		}
+		if (!measured) {
+			return;
+		}
+		operationStats.latency.recordValue(Math.min(System.nanoTime() - intended, HIGHEST_TRACKABLE_NANOS));
+		if (status >= 200 && status < 300) {
+			operationStats.succeeded.increment();
+		} else if (status == 400) {
+			operationStats.refused.increment();
+		} else if (status == 503) {
+			operationStats.shed.increment();
+		} else {
+			operationStats.failed.increment();
+		}
+	}
+
+	private int send(Operation operation) throws IOException {
+		switch (operation) {
+		case CREATE:
+			return client.post("/v1/accounts", "application/json", "{\"accountId\":\"" + ACCOUNT_PREFIX + "new-"
+					+ createAttempts.getAndIncrement() + "\",\"balance\":" + CREATED_BALANCE + "}").status;
+		case GET:
+			return client.get("/v1/accounts/" + ACCOUNT_PREFIX + selector.next()).status;
+		default:
+			int from = selector.next();
+			int to = selector.next();
+			if (from == to) {
+				to = (to + 1) % options.accounts;
+			}
+			BigDecimal amount = BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 101), 2);
+			return client.post("/v1/accounts/transaction", "application/json", "{\"accountFromId\":\"" + ACCOUNT_PREFIX
+					+ from + "\",\"accountToId\":\"" + ACCOUNT_PREFIX + to + "\",\"amount\":" + amount + "}").status;
+		}
+	}
+
+	Map<Operation, OperationStats> stats() {
+		return stats;
+	}
+
+	long createAttempts() {
+		return createAttempts.get();
+	}
+
+	/**
+	 * most requests scheduled but not answered at once, above the thread count requests waited
+	 * for a client thread and that wait is part of their latency
+	 */
+	long maxBacklog() {
+		return maxBacklog;
+	}
+}
@@ -0,0 +1,82 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Minimal blocking http client on HttpURLConnection, which keeps connections alive per host, so
+ * the load generator does not pull in a client library. Every response body is read to the end,
+ * otherwise its connection could not be reused.
+ */
+final class LoadTestClient {
+
+	static final class Response {
+
+		final int status;
+
+		final byte[] body;
+
+		Response(int status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		String text() {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	private final String baseUrl;
+
+	private final String authorization;
+
+	LoadTestClient(String baseUrl, String user, String password) {
+		this.baseUrl = baseUrl;
+		this.authorization = "Basic "
+				+ Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+	}
+
+	Response get(String path) throws IOException {
+		return send("GET", path, null, null);
+	}
+
+	Response post(String path, String contentType, String body) throws IOException {
+		return send("POST", path, contentType, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Response send(String method, String path, String contentType, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Authorization", authorization);
+		connection.setConnectTimeout(5000);
+		connection.setReadTimeout(60000);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", contentType);
+			connection.setFixedLengthStreamingMode(body.length);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		if (in == null) {
+			return new Response(status, new byte[0]);
+		}
+		try (InputStream stream = in) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				content.write(buffer, 0, read);
+			}
+			return new Response(status, content.toByteArray());
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options of a load test run, given as key=value arguments. Arguments starting with -- are
+ * handed to the application when it is started in process, e.g. --accounts.repository.mode=journal.
+ */
+final class LoadTestOptions {
+
+	// base url of a running service, empty to start the application in process on a random port
+	final String url;
+
+	// requests per second over all operations
+	final int rate;
+
+	final int warmupSeconds;
+
+	final int durationSeconds;
+
+	// accounts created up front, transfers and reads are drawn from them
+	final int accounts;
+
+	// zipf exponent of the account choice, 0 = uniform
+	final double skew;
+
+	// weights per operation, e.g. create:5,get:45,transfer:50
+	final String mix;
+
+	// client threads, requests beyond that wait for a free thread
+	final int threads;
+
+	final String user;
+
+	final String password;
+
+	final String reportDirectory;
+
+	final List<String> applicationArguments = new ArrayList<>();
+
+	LoadTestOptions(String[] args) {
+		Map<String, String> values = new LinkedHashMap<>();
+		for (String arg : args) {
+			if (arg.startsWith("--")) {
+				applicationArguments.add(arg);
+				continue;
+			}
+			int separator = arg.indexOf('=');
+			if (separator < 1) {
+				throw new IllegalArgumentException("expected key=value, was " + arg);
+			}
+			values.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+		this.url = values.getOrDefault("url", "");
+		this.rate = Integer.parseInt(values.getOrDefault("rate", "2000"));
+		this.warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", "5"));
+		this.durationSeconds = Integer.parseInt(values.getOrDefault("duration", "30"));
+		this.accounts = Integer.parseInt(values.getOrDefault("accounts", "10000"));
+		this.skew = Double.parseDouble(values.getOrDefault("skew", "0"));
+		this.mix = values.getOrDefault("mix", "create:5,get:45,transfer:50");
+		this.threads = Integer.parseInt(values.getOrDefault("threads", "64"));
+		this.user = values.getOrDefault("user", "admin");
+		this.password = values.getOrDefault("password", "admin");
+		this.reportDirectory = values.getOrDefault("report", "build/reports/loadtest");
+		if (rate < 1 || accounts < 2 || threads < 1) {
+			throw new IllegalArgumentException("rate and threads must be positive and at least two accounts are needed");
+		}
+	}
+
+	/**
+	 * one entry per weight unit, picking a random entry follows the mix
+	 */
+	LoadGenerator.Operation[] mix() {
+		List<LoadGenerator.Operation> entries = new ArrayList<>();
+		for (String part : mix.split(",")) {
+			String[] weight = part.trim().split(":");
+			LoadGenerator.Operation operation = LoadGenerator.Operation.valueOf(weight[0].trim().toUpperCase());
+			for (int i = Integer.parseInt(weight[1].trim()); i > 0; i--) {
+				entries.add(operation);
+			}
+		}
+		if (entries.isEmpty()) {
+			throw new IllegalArgumentException("mix has no operation with a positive weight: " + mix);
+		}
+		return entries.toArray(new LoadGenerator.Operation[0]);
+	}
+
+	Map<String, Object> describe() {
+		Map<String, Object> description = new LinkedHashMap<>();
+		description.put("url", url.isEmpty() ? "in process" : url);
+		description.put("rate", rate);
+		description.put("warmupSeconds", warmupSeconds);
+		description.put("durationSeconds", durationSeconds);
+		description.put("accounts", accounts);
+		description.put("skew", skew);
+		description.put("mix", mix);
+		description.put("threads", threads);
+		description.put("applicationArguments", applicationArguments);
+		return description;
+	}
+}
@@ -0,0 +1,181 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * End to end load test: starts the application on a random port (or targets a running one),
+ * creates the accounts, drives the configured mix at a fixed rate and reports throughput and
+ * latency percentiles per operation. Once all requests are answered the balances of all
+ * accounts of the run must add up to the money they were created with. The report is also
+ * written as json, one file per run, so runs of two releases can be compared.
+ *
+ * arguments: key=value options, see {@link LoadTestOptions}, and --application.properties
+ *
+ * exits with 1 if money was created or lost
+ */
+public class LoadTestRunner {
+
+	public static void main(String[] args) throws Exception {
+		LoadTestOptions options = new LoadTestOptions(args);
+		ConfigurableApplicationContext application = null;
+		String baseUrl = options.url;
+		if (baseUrl.isEmpty()) {
+			List<String> applicationArguments = new ArrayList<>();
+			applicationArguments.add("--server.port=0");
+			applicationArguments.addAll(options.applicationArguments);
+			application = SpringApplication.run(DevChallengeApplication.class,
+					applicationArguments.toArray(new String[0]));
+			baseUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+		}
+		boolean conserved;
+		try {
+			LoadTestClient client = new LoadTestClient(baseUrl, options.user, options.password);
+			LoadGenerator generator = new LoadGenerator(client, options);
+			generator.preload();
+			generator.run();
+
+			Map<String, Object> money = checkMoney(client, options, generator);
+			conserved = (Boolean) money.get("conserved");
+			Map<String, Object> report = new LinkedHashMap<>();
+			report.put("options", options.describe());
+			report.put("operations", operations(generator, options.durationSeconds));
+			report.put("maxClientBacklog", generator.maxBacklog());
+			report.put("money", money);
+			print(report);
+			write(report, options.reportDirectory);
+		} finally {
+			if (application != null) {
+				application.close();
+			}
+		}
+		System.exit(conserved ? 0 : 1);
+	}
+
+	/**
+	 * every account of the run starts with a known balance and transfers only move money, so
+	 * the sum over all of them is fixed no matter which requests succeeded
+	 */
+	private static Map<String, Object> checkMoney(LoadTestClient client, LoadTestOptions options,
+			LoadGenerator generator) throws IOException {
+		BigDecimal total = BigDecimal.ZERO;
+		long created = 0;
+		long preloaded = 0;
+		LoadTestClient.Response export = client.get("/v1/accounts/export");
+		if (export.status == 200) {
+			// the export reads all balances as of one instant
+			try (MappingIterator<JsonNode> accounts = new ObjectMapper().readerFor(JsonNode.class).readValues(export.body)) {
+				while (accounts.hasNext()) {
+					JsonNode account = accounts.next();
+					String accountId = account.get("accountId").asText();
+					if (accountId.startsWith(LoadGenerator.ACCOUNT_PREFIX + "new-")) {
+						created++;
+					} else if (accountId.startsWith(LoadGenerator.ACCOUNT_PREFIX)) {
+						preloaded++;
+					} else {
+						continue;
+					}
+					total = total.add(account.get("balance").decimalValue());
+				}
+			}
+		} else {
+			// no export in this repository mode, nothing runs anymore so reading one by one is exact as well
+			for (int i = 0; i < options.accounts; i++) {
+				BigDecimal balance = balance(client, LoadGenerator.ACCOUNT_PREFIX + i);
+				if (balance != null) {
+					total = total.add(balance);
+					preloaded++;
+				}
+			}
+			for (long i = 0; i < generator.createAttempts(); i++) {
+				BigDecimal balance = balance(client, LoadGenerator.ACCOUNT_PREFIX + "new-" + i);
+				if (balance != null) {
+					total = total.add(balance);
+					created++;
+				}
+			}
+		}
+		BigDecimal expected = LoadGenerator.INITIAL_BALANCE.multiply(BigDecimal.valueOf(preloaded))
+				.add(LoadGenerator.CREATED_BALANCE.multiply(BigDecimal.valueOf(created)));
+		Map<String, Object> money = new LinkedHashMap<>();
+		money.put("accounts", preloaded + created);
+		money.put("expected", expected);
+		money.put("actual", total);
+		money.put("conserved", expected.compareTo(total) == 0 && preloaded >= options.accounts);
+		return money;
+	}
+
+	private static BigDecimal balance(LoadTestClient client, String accountId) throws IOException {
+		LoadTestClient.Response response = client.get("/v1/accounts/" + accountId);
+		if (response.status != 200 || response.body.length == 0) {
+			return null;
+		}
+		return new ObjectMapper().readTree(response.body).get("balance").decimalValue();
+	}
+
+	private static Map<String, Object> operations(LoadGenerator generator, int durationSeconds) {
+		Map<String, Object> operations = new LinkedHashMap<>();
+		for (Map.Entry<LoadGenerator.Operation, LoadGenerator.OperationStats> entry : generator.stats().entrySet()) {
+			LoadGenerator.OperationStats stats = entry.getValue();
+			Histogram histogram = stats.histogram;
+			Map<String, Object> operation = new LinkedHashMap<>();
+			operation.put("count", histogram.getTotalCount());
+			operation.put("throughput", (double) histogram.getTotalCount() / durationSeconds);
+			operation.put("succeeded", stats.succeeded.sum());
+			operation.put("refused", stats.refused.sum());
+			operation.put("shed", stats.shed.sum());
+			operation.put("failed", stats.failed.sum());
+			operation.put("p50Millis", millis(histogram.getValueAtPercentile(50)));
+			operation.put("p99Millis", millis(histogram.getValueAtPercentile(99)));
+			operation.put("p999Millis", millis(histogram.getValueAtPercentile(99.9)));
+			operation.put("maxMillis", millis(histogram.getMaxValue()));
+			operations.put(entry.getKey().name().toLowerCase(), operation);
+		}
+		return operations;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void print(Map<String, Object> report) {
+		System.out.println();
+		System.out.println(String.format("%-10s %10s %12s %9s %9s %9s %10s %10s %10s %10s", "operation", "count",
+				"per second", "refused", "shed", "failed", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (Map.Entry<String, Object> entry : ((Map<String, Object>) report.get("operations")).entrySet()) {
+			Map<String, Object> operation = (Map<String, Object>) entry.getValue();
+			System.out.println(String.format("%-10s %10d %12.1f %9d %9d %9d %10.2f %10.2f %10.2f %10.2f", entry.getKey(),
+					operation.get("count"), operation.get("throughput"), operation.get("refused"), operation.get("shed"),
+					operation.get("failed"), operation.get("p50Millis"), operation.get("p99Millis"),
+					operation.get("p999Millis"), operation.get("maxMillis")));
+		}
+		Map<String, Object> money = (Map<String, Object>) report.get("money");
+		System.out.println(String.format("money over %d accounts: expected %s, actual %s -> %s", money.get("accounts"),
+				money.get("expected"), money.get("actual"), (Boolean) money.get("conserved") ? "conserved" : "NOT CONSERVED"));
+		System.out.println();
+	}
+
+	private static void write(Map<String, Object> report, String reportDirectory) throws IOException {
+		File directory = new File(reportDirectory);
+		directory.mkdirs();
+		File file = new File(directory, "loadtest-" + System.currentTimeMillis() + ".json");
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+		System.out.println("report written to " + file.getPath());
+	}
+}
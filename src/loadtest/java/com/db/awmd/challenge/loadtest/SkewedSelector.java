@@ -0,0 +1,50 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks account indexes with Zipf skew, rank r is drawn with a weight of 1 / r^skew. A skew of
+ * 0 is uniform, 1 sends roughly a tenth of the traffic of 10000 accounts to the first one.
+ */
+final class SkewedSelector {
+
+	private final int accounts;
+
+	private final double[] cumulative;
+
+	SkewedSelector(int accounts, double skew) {
+		this.accounts = accounts;
+		if (skew <= 0) {
+			this.cumulative = null;
+			return;
+		}
+		this.cumulative = new double[accounts];
+		double sum = 0;
+		for (int rank = 0; rank < accounts; rank++) {
+			sum += 1 / Math.pow(rank + 1, skew);
+			cumulative[rank] = sum;
+		}
+		for (int rank = 0; rank < accounts; rank++) {
+			cumulative[rank] /= sum;
+		}
+	}
+
+	int next() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (cumulative == null) {
+			return random.nextInt(accounts);
+		}
+		double value = random.nextDouble();
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulative[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
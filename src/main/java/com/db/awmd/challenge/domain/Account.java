@@ -1,34 +1,114 @@
 package com.db.awmd.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import lombok.AccessLevel;
 import lombok.Data;
-import org.hibernate.validator.constraints.NotBlank;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
 import org.hibernate.validator.constraints.NotEmpty;
 
 @Data
+@EqualsAndHashCode(exclude = { "journalPosition", "version" })
 public class Account {
 
+  /**
+   * in chars, at most 3 utf-8 bytes each, well within the 16 bit length the journal stores ids with
+   */
+  public static final int MAX_ID_LENGTH = 256;
+
   @NotNull
   @NotEmpty
+  @Size(max = MAX_ID_LENGTH, message = "Account id must not be longer than 256 characters.")
   private final String accountId;
 
-  @NotNull
-  @Min(value = 0, message = "Initial balance must be positive.")
-  private BigDecimal balance;
+  /**
+   * balance in minor units, see {@link Money}. Only changed while the account is locked by the repository.
+   */
+  @JsonIgnore
+  private volatile long minorBalance;
+
+  /**
+   * journal position of the last change to this account, 0 when the repository keeps no journal
+   */
+  @JsonIgnore
+  private volatile long journalPosition;
+
+  /**
+   * bumped twice by every balance change, odd while the change is in progress
+   */
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile long version;
+
+  private static final AtomicLongFieldUpdater<Account> JOURNAL_POSITION = AtomicLongFieldUpdater
+    .newUpdater(Account.class, "journalPosition");
 
   public Account(String accountId) {
     this.accountId = accountId;
-    this.balance = BigDecimal.ZERO;
   }
 
   @JsonCreator
   public Account(@JsonProperty("accountId") String accountId,
     @JsonProperty("balance") BigDecimal balance) {
     this.accountId = accountId;
-    this.balance = balance;
+    this.minorBalance = Money.toMinorUnits(balance);
+  }
+
+  @Min(value = 0, message = "Initial balance must be positive.")
+  public BigDecimal getBalance() {
+    return Money.toDecimal(minorBalance);
+  }
+
+  public void setBalance(BigDecimal balance) {
+    setMinorBalance(Money.toMinorUnits(balance));
+  }
+
+  /**
+   * Only one thread may change an account at a time, the holder of its lock or the thread
+   * owning its partition. The version brackets the change for readers of {@link #snapshot()}.
+   */
+  public void setMinorBalance(long minorBalance) {
+    long next = version + 1;
+    version = next;
+    this.minorBalance = minorBalance;
+    version = next + 1;
+  }
+
+  /**
+   * Detached copy for readers, taken without any lock. Balance and version are read as a
+   * consistent pair, the read is repeated while a change is in progress.
+   */
+  public Account snapshot() {
+    Account copy = new Account(accountId);
+    long before;
+    do {
+      before = version;
+      copy.minorBalance = minorBalance;
+      copy.journalPosition = journalPosition;
+    } while ((before & 1) != 0 || version != before);
+    copy.version = before;
+    return copy;
+  }
+
+  /**
+   * moves the journal position forward, safe for sharded accounts changed by several transfers at once
+   */
+  public void advanceJournalPosition(long position) {
+    long current;
+    while ((current = journalPosition) < position && !JOURNAL_POSITION.compareAndSet(this, current, position)) {
+      // retry, another transfer moved the position meanwhile
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Account(accountId=" + accountId + ", balance=" + getBalance() + ")";
   }
 }
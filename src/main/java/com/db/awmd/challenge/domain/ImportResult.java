@@ -0,0 +1,20 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * outcome of a bulk account import, errors holds the first few rejected lines with their line number
+ */
+@Data
+public class ImportResult {
+
+	private final long created;
+
+	private final long duplicates;
+
+	private final long invalid;
+
+	private final List<String> errors;
+}
@@ -0,0 +1,51 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Getter;
+
+/**
+ * one change of an account balance as kept by the transaction ledger, amounts are negative for debits
+ */
+@Getter
+public class LedgerEntry {
+
+	/** marks an entry of a hot account, whose balance after a single transfer is not known */
+	public static final long UNKNOWN_BALANCE = Long.MIN_VALUE;
+
+	private final long sequence;
+
+	private final String counterpartyAccountId;
+
+	@JsonIgnore
+	private final long minorAmount;
+
+	@JsonIgnore
+	private final long minorBalance;
+
+	private final long timestamp;
+
+	public LedgerEntry(long sequence, String counterpartyAccountId, long minorAmount, long minorBalance, long timestamp) {
+		this.sequence = sequence;
+		this.counterpartyAccountId = counterpartyAccountId;
+		this.minorAmount = minorAmount;
+		this.minorBalance = minorBalance;
+		this.timestamp = timestamp;
+	}
+
+	public BigDecimal getAmount() {
+		return Money.toDecimal(minorAmount);
+	}
+
+	public BigDecimal getBalance() {
+		return minorBalance == UNKNOWN_BALANCE ? null : Money.toDecimal(minorBalance);
+	}
+
+	@Override
+	public String toString() {
+		return "LedgerEntry [sequence=" + sequence + ", counterpartyAccountId=" + counterpartyAccountId + ", amount="
+				+ getAmount() + ", balance=" + getBalance() + ", timestamp=" + timestamp + "]";
+	}
+}
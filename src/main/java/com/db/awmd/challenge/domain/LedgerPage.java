@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * one page of an account history, newest entry first, nextCursor is null once the oldest retained entry was returned
+ */
+@Data
+public class LedgerPage {
+
+	private final List<LedgerEntry> entries;
+
+	private final Long nextCursor;
+}
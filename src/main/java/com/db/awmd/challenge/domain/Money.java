@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Conversion between the decimal amounts of the REST api and the scaled long minor units
+ * (cents) balances are kept in, so the transfer path does not allocate a BigDecimal per step.
+ */
+public final class Money {
+
+  public static final int SCALE = 2;
+
+  private Money() {
+  }
+
+  /**
+   * @throws ArithmeticException if the amount has more than {@link #SCALE} decimals or does not fit into a long
+   */
+  public static long toMinorUnits(BigDecimal amount) {
+    if (amount == null) {
+      throw new IllegalArgumentException("amount is required");
+    }
+    return amount.movePointRight(SCALE).longValueExact();
+  }
+
+  public static BigDecimal toDecimal(long minorUnits) {
+    BigDecimal amount = BigDecimal.valueOf(minorUnits, SCALE).stripTrailingZeros();
+    //keep whole amounts as plain integers (1000 instead of 1E+3)
+    return amount.scale() < 0 ? amount.setScale(0) : amount;
+  }
+}
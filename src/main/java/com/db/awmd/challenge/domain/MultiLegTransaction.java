@@ -0,0 +1,106 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+
+/**
+ * One account paying many (fan-out, e.g. a payroll) or many accounts paying one (fan-in),
+ * applied as a whole or not at all. Exactly one of accountFromId and accountToId is set,
+ * every leg names the account on the other side and its amount.
+ */
+@Data
+public class MultiLegTransaction {
+
+	private final String accountFromId;
+
+	private final String accountToId;
+
+	@NotNull
+	@NotEmpty
+	@Valid
+	private final List<Leg> legs;
+
+	@JsonCreator
+	public MultiLegTransaction(@JsonProperty("accountFromId") String accountFrom,
+			@JsonProperty("accountToId") String accountTo, @JsonProperty("legs") List<Leg> legs) {
+		this.accountFromId = accountFrom;
+		this.accountToId = accountTo;
+		this.legs = legs;
+	}
+
+	@JsonIgnore
+	@AssertTrue(message = "exactly one of accountFromId and accountToId must be set")
+	public boolean isOneSided() {
+		return (accountFromId == null || accountFromId.isEmpty()) != (accountToId == null || accountToId.isEmpty());
+	}
+
+	/**
+	 * true if the single account pays every leg, false if every leg pays the single account
+	 */
+	@JsonIgnore
+	public boolean isFanOut() {
+		return accountFromId != null && !accountFromId.isEmpty();
+	}
+
+	/**
+	 * the account on the single side
+	 */
+	@JsonIgnore
+	public String getAccountId() {
+		return isFanOut() ? accountFromId : accountToId;
+	}
+
+	/**
+	 * sum of all legs in minor units, the amount the single account pays or receives
+	 */
+	@JsonIgnore
+	public long getMinorTotal() {
+		long total = 0;
+		for (Leg leg : legs) {
+			total = Math.addExact(total, leg.getMinorAmount());
+		}
+		return total;
+	}
+
+	@Data
+	public static class Leg {
+
+		@NotNull
+		@NotEmpty
+		private final String accountId;
+
+		/**
+		 * amount in minor units, see {@link Money}
+		 */
+		@JsonIgnore
+		private long minorAmount;
+
+		@JsonCreator
+		public Leg(@JsonProperty("accountId") String accountId, @JsonProperty("amount") BigDecimal amount) {
+			this.accountId = accountId;
+			this.minorAmount = Money.toMinorUnits(amount);
+		}
+
+		@Min(value = 0, message = "Requested transaction amount cant be nagative")
+		public BigDecimal getAmount() {
+			return Money.toDecimal(minorAmount);
+		}
+
+		public void setAmount(BigDecimal amount) {
+			this.minorAmount = Money.toMinorUnits(amount);
+		}
+	}
+}
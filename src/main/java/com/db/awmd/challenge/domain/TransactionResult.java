@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * outcome of one transfer of a batch, status uses the same http codes the single transfer endpoint answers with
+ */
+@Data
+public class TransactionResult {
+
+	private final int index;
+
+	private final int status;
+
+	private final String message;
+}
@@ -8,6 +8,7 @@ import javax.validation.constraints.NotNull;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import lombok.Data;
@@ -23,15 +24,32 @@ public class UserTransaction {
 	@NotEmpty
 	private final String accountToId;
 
-	@NotNull
-	@Min(value = 0, message = "Requested transaction amount cant be nagative")
-	private BigDecimal amount;
+	/**
+	 * amount in minor units, see {@link Money}
+	 */
+	@JsonIgnore
+	private long minorAmount;
 
 	@JsonCreator
 	public UserTransaction(@JsonProperty("accountFromId") String accountFrom, @JsonProperty("accountToId") String accountTo,
 			@JsonProperty("amount") BigDecimal amount) {
 		this.accountFromId = accountFrom;
 		this.accountToId = accountTo;
-		this.amount = amount;
+		this.minorAmount = Money.toMinorUnits(amount);
+	}
+
+	@Min(value = 0, message = "Requested transaction amount cant be nagative")
+	public BigDecimal getAmount() {
+		return Money.toDecimal(minorAmount);
+	}
+
+	public void setAmount(BigDecimal amount) {
+		this.minorAmount = Money.toMinorUnits(amount);
+	}
+
+	@Override
+	public String toString() {
+		return "UserTransaction(accountFromId=" + accountFromId + ", accountToId=" + accountToId + ", amount="
+				+ getAmount() + ")";
 	}
 }
@@ -0,0 +1,15 @@
+package com.db.awmd.challenge.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * a follower is too far behind its leader to answer a read
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ReplicaNotAvailableException extends RuntimeException {
+
+  public ReplicaNotAvailableException(String message) {
+    super(message);
+  }
+}
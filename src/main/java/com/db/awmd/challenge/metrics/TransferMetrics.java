@@ -0,0 +1,141 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+/**
+ * Instrumentation of the transfer path, published through the actuator metrics endpoint.
+ *
+ * Latencies go into HdrHistogram recorders and counts into LongAdders, both record without
+ * allocating and without a shared lock. Percentiles cover the time since the previous read of
+ * the metrics endpoint, counters are totals since startup.
+ */
+@Component
+public class TransferMetrics implements PublicMetrics {
+
+	private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+	private final NotificationDispatcher notificationDispatcher;
+
+	private final Recorder transferLatency = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+
+	private final Recorder lockWait = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+
+	private final LongAdder transfers = new LongAdder();
+
+	private final LongAdder contendedLocks = new LongAdder();
+
+	private final LongAdder insufficientBalance = new LongAdder();
+
+	private final LongAdder accountNotFound = new LongAdder();
+
+	private final LongAdder localTransfers = new LongAdder();
+
+	private final LongAdder crossShardTransfers = new LongAdder();
+
+	private final LongAdder abortedTransfers = new LongAdder();
+
+	private Histogram transferLatencyInterval;
+
+	private Histogram lockWaitInterval;
+
+	@Autowired
+	public TransferMetrics(NotificationDispatcher notificationDispatcher) {
+		this.notificationDispatcher = notificationDispatcher;
+	}
+
+	/**
+	 * duration of a whole performTransaction call, failed ones included
+	 */
+	public void recordTransfer(long nanos) {
+		transfers.increment();
+		transferLatency.recordValue(Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+	}
+
+	/**
+	 * time spent waiting for account locks, 0 when they were free
+	 */
+	public void recordLockWait(long nanos) {
+		if (nanos > 0) {
+			contendedLocks.increment();
+		}
+		lockWait.recordValue(Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+	}
+
+	public void incrementInsufficientBalance() {
+		insufficientBalance.increment();
+	}
+
+	public void incrementAccountNotFound() {
+		accountNotFound.increment();
+	}
+
+	/**
+	 * sharded mode: a transfer between two accounts of the same shard
+	 */
+	public void incrementLocalTransfer() {
+		localTransfers.increment();
+	}
+
+	/**
+	 * sharded mode: a transfer that needed reserve and commit in two shards
+	 */
+	public void incrementCrossShardTransfer() {
+		crossShardTransfers.increment();
+	}
+
+	/**
+	 * sharded mode: a cross-shard transfer whose reservations were given back
+	 */
+	public void incrementAbortedTransfer() {
+		abortedTransfers.increment();
+	}
+
+	// a plain monitor, Recorder.getIntervalHistogram synchronizes anyway so a lock here would not
+	// keep a virtual thread from pinning, and only the actuator reads this
+	@Override
+	public synchronized Collection<Metric<?>> metrics() {
+		// interval histograms are recycled between reads, reading does not disturb recording threads
+		transferLatencyInterval = transferLatency.getIntervalHistogram(transferLatencyInterval);
+		lockWaitInterval = lockWait.getIntervalHistogram(lockWaitInterval);
+
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("transfers.count", transfers.sum()));
+		addPercentiles(metrics, "transfers.latency.us", transferLatencyInterval);
+		metrics.add(new Metric<>("transfers.lock-wait.contended", contendedLocks.sum()));
+		addPercentiles(metrics, "transfers.lock-wait.us", lockWaitInterval);
+		metrics.add(new Metric<>("transfers.rejected.insufficient-balance", insufficientBalance.sum()));
+		metrics.add(new Metric<>("transfers.rejected.account-not-found", accountNotFound.sum()));
+		metrics.add(new Metric<>("transfers.sharded.local", localTransfers.sum()));
+		metrics.add(new Metric<>("transfers.sharded.cross-shard", crossShardTransfers.sum()));
+		metrics.add(new Metric<>("transfers.sharded.aborted", abortedTransfers.sum()));
+		metrics.add(new Metric<>("notifications.queue.depth", notificationDispatcher.getQueueDepth()));
+		metrics.add(new Metric<>("notifications.dropped", notificationDispatcher.getDroppedCount()));
+		metrics.add(new Metric<>("notifications.spilled", notificationDispatcher.getSpilledCount()));
+		return metrics;
+	}
+
+	private static void addPercentiles(List<Metric<?>> metrics, String prefix, Histogram histogram) {
+		metrics.add(new Metric<>(prefix + ".p50", micros(histogram.getValueAtPercentile(50))));
+		metrics.add(new Metric<>(prefix + ".p90", micros(histogram.getValueAtPercentile(90))));
+		metrics.add(new Metric<>(prefix + ".p99", micros(histogram.getValueAtPercentile(99))));
+		metrics.add(new Metric<>(prefix + ".p999", micros(histogram.getValueAtPercentile(99.9))));
+		metrics.add(new Metric<>(prefix + ".max", micros(histogram.getMaxValue())));
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+}
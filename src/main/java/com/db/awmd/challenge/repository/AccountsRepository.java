@@ -1,6 +1,13 @@
 package com.db.awmd.challenge.repository;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
 import com.db.awmd.challenge.domain.UserTransaction;
 import com.db.awmd.challenge.exception.AccountNotExistException;
 import com.db.awmd.challenge.exception.BalanceNotSufficientException;
@@ -10,9 +17,66 @@ public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
+  /**
+   * creates all accounts, the ones whose id exists already are left out and returned
+   */
+  default List<Account> createAccounts(List<Account> accounts) {
+    List<Account> duplicates = new ArrayList<>();
+    for (Account account : accounts) {
+      try {
+        createAccount(account);
+      } catch (DuplicateAccountIdException e) {
+        duplicates.add(account);
+      }
+    }
+    return duplicates;
+  }
+
   Account getAccount(String accountId);
 
+  /**
+   * receives one account of an export together with its balance at the instant of the export
+   */
+  interface BalanceVisitor {
+
+    void visit(String accountId, long minorBalance) throws IOException;
+  }
+
+  /**
+   * whether {@link #exportAccounts(BalanceVisitor)} is implemented, so callers can tell before
+   * they start writing a response
+   */
+  default boolean supportsExport() {
+    return false;
+  }
+
+  /**
+   * hands every account to the visitor with the balances of one single instant, transfers keep
+   * running meanwhile
+   *
+   * @return number of exported accounts
+   */
+  default long exportAccounts(BalanceVisitor visitor) throws IOException {
+    throw new UnsupportedOperationException("consistent export is not supported by " + getClass().getSimpleName());
+  }
+
   void clearAccounts();
   
   void performTransaction(UserTransaction userTransaction) throws AccountNotExistException, BalanceNotSufficientException;
+
+  /**
+   * applies all legs or none of them, every involved account is locked once for the whole
+   * transfer, see {@link MultiLegTransaction}
+   */
+  default void performMultiLegTransaction(MultiLegTransaction transaction)
+      throws AccountNotExistException, BalanceNotSufficientException {
+    throw new UnsupportedOperationException("multi-leg transfers are not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * performs the transfer without blocking the caller, waiting for locks happens on the given executor
+   */
+  default CompletableFuture<Void> performTransactionAsync(UserTransaction userTransaction, Executor executor) {
+    return CompletableFuture.runAsync(() -> performTransaction(userTransaction), executor);
+  }
 }
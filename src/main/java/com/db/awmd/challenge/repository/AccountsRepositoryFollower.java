@@ -0,0 +1,232 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.ReplicaNotAvailableException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Read only copy of the accounts of an {@link AccountsRepositoryLeader}.
+ *
+ * One thread connects to the leader, loads the accounts it sends and then applies the
+ * streamed changes in sequence order, through the same restore path the journal replay uses.
+ * Reads are lock-free snapshots as in the in-memory repository and are only answered while
+ * the follower is no further behind than accounts.replication.max-staleness-ms: the last
+ * applied heartbeat tells up to which leader time all changes are applied. This assumes the
+ * clocks of leader and follower are in sync. A lost connection is retried every second, each
+ * new connection starts from a fresh copy of all accounts. Every connection is authenticated
+ * with accounts.replication.secret, see {@link AccountsRepositoryLeader}.
+ *
+ * Writes, the transaction history and the export are only served by the leader.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.mode", havingValue = "follower")
+@Slf4j
+public class AccountsRepositoryFollower extends AccountsRepositoryInMemory {
+
+	private static final long RETRY_MILLIS = 1000;
+
+	// a leader sends heartbeats far more often, silence this long means the connection is gone
+	private static final int READ_TIMEOUT_MILLIS = 5000;
+
+	private final String leaderHost;
+
+	private final int leaderPort;
+
+	private final byte[] secret;
+
+	private final long maxStalenessMillis;
+
+	private final Thread replicator;
+
+	private volatile boolean ready;
+
+	private volatile long appliedLeaderMillis;
+
+	private volatile Socket socket;
+
+	private volatile boolean closed;
+
+	@Autowired
+	public AccountsRepositoryFollower(@Value("${accounts.lock.stripes:1024}") int lockStripes,
+			@Value("${accounts.replication.leader:localhost:18090}") String leader,
+			@Value("${accounts.replication.secret:}") String secret,
+			@Value("${accounts.replication.max-staleness-ms:1000}") long maxStalenessMillis) {
+		super(lockStripes);
+		int separator = leader.lastIndexOf(':');
+		if (separator < 1) {
+			throw new IllegalArgumentException("accounts.replication.leader must be host:port, was " + leader);
+		}
+		this.leaderHost = leader.substring(0, separator);
+		this.leaderPort = Integer.parseInt(leader.substring(separator + 1));
+		this.secret = AccountsRepositoryLeader.secret(secret);
+		this.maxStalenessMillis = maxStalenessMillis;
+		this.replicator = new Thread(this::replicate, "replication-follower");
+		replicator.setDaemon(true);
+		replicator.start();
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		closed = true;
+		replicator.interrupt();
+		Socket current = socket;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	/**
+	 * @return how far the accounts are behind the leader, Long.MAX_VALUE until the first copy is loaded
+	 */
+	public long stalenessMillis() {
+		return ready ? Math.max(0, System.currentTimeMillis() - appliedLeaderMillis) : Long.MAX_VALUE;
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		long staleness = stalenessMillis();
+		if (staleness > maxStalenessMillis) {
+			throw new ReplicaNotAvailableException(staleness == Long.MAX_VALUE
+					? "replica has not caught up with the leader yet"
+					: "replica is " + staleness + " ms behind the leader");
+		}
+		return super.getAccount(accountId);
+	}
+
+	@Override
+	public void createAccount(Account account) {
+		throw readOnly();
+	}
+
+	@Override
+	public List<Account> createAccounts(List<Account> accounts) {
+		throw readOnly();
+	}
+
+	@Override
+	public void performTransaction(UserTransaction userTransaction) {
+		throw readOnly();
+	}
+
+	@Override
+	public void performMultiLegTransaction(MultiLegTransaction transaction) {
+		throw readOnly();
+	}
+
+	@Override
+	public void clearAccounts() {
+		throw readOnly();
+	}
+
+	@Override
+	public boolean supportsExport() {
+		return false;
+	}
+
+	@Override
+	public long exportAccounts(BalanceVisitor visitor) {
+		throw new UnsupportedOperationException("export is served by the leader " + leaderHost + ":" + leaderPort);
+	}
+
+	private UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("read only follower, send changes to the leader " + leaderHost + ":"
+				+ leaderPort);
+	}
+
+	private void replicate() {
+		Applier applier = new Applier();
+		while (!closed) {
+			try (Socket connection = new Socket()) {
+				socket = connection;
+				connection.connect(new InetSocketAddress(leaderHost, leaderPort), READ_TIMEOUT_MILLIS);
+				connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+				connection.setTcpNoDelay(true);
+				// the leader starts every connection with all accounts
+				ready = false;
+				restoreCleared();
+				log.info("Replicating from leader {}:{}", leaderHost, leaderPort);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+				byte[] nonce = new byte[AccountsRepositoryLeader.NONCE_SIZE];
+				in.readFully(nonce);
+				OutputStream out = connection.getOutputStream();
+				out.write(AccountsRepositoryLeader.proof(secret, nonce));
+				out.flush();
+				CRC32 crc = new CRC32();
+				while (!closed) {
+					long sequence = in.readLong();
+					byte[] payload = TransactionJournal.readRecord(in, crc);
+					if (payload == null) {
+						throw new IOException("replication stream from " + leaderHost + ":" + leaderPort + " is corrupt");
+					}
+					switch (payload[0]) {
+					case AccountsRepositoryLeader.HEARTBEAT:
+						appliedLeaderMillis = ByteBuffer.wrap(payload, 1, 8).getLong();
+						break;
+					case AccountsRepositoryLeader.SNAPSHOT_END:
+						// reads wait for the first heartbeat after the copy
+						appliedLeaderMillis = 0;
+						ready = true;
+						break;
+					default:
+						TransactionJournal.dispatch(sequence, ByteBuffer.wrap(payload), applier);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				ready = false;
+				if (!closed) {
+					log.warn("Replication from leader {}:{} stopped, retrying in {} ms: {}", leaderHost, leaderPort,
+							RETRY_MILLIS, e.toString());
+				}
+			}
+			try {
+				Thread.sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private class Applier implements TransactionJournal.Visitor {
+
+		@Override
+		public void accountCreated(long position, String accountId, long balance) {
+			restoreAccount(accountId, balance, position);
+		}
+
+		@Override
+		public void transferred(long position, String accountFromId, String accountToId, long amount) {
+			restoreTransfer(accountFromId, accountToId, amount, position);
+		}
+
+		@Override
+		public void cleared(long position) {
+			restoreCleared();
+		}
+
+		@Override
+		public void multiLegTransferred(long position, String accountId, boolean fanOut, String[] legAccountIds,
+				long[] amounts) {
+			restoreMultiLeg(accountId, fanOut, legAccountIds, amounts, position);
+		}
+	}
+}
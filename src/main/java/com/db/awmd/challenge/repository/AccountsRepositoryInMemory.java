@@ -1,44 +1,171 @@
 package com.db.awmd.challenge.repository;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.LedgerEntry;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
 import com.db.awmd.challenge.domain.UserTransaction;
 import com.db.awmd.challenge.exception.AccountNotExistException;
 import com.db.awmd.challenge.exception.BalanceNotSufficientException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
-import com.db.awmd.challenge.service.EmailNotificationService;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.NotificationDispatcher;
 
 @Repository
+@ConditionalOnProperty(name = "accounts.repository.mode", havingValue = "memory", matchIfMissing = true)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 	
 	@Autowired
-	EmailNotificationService notificationService;
+	NotificationDispatcher notificationDispatcher;
+
+	@Autowired
+	TransferMetrics transferMetrics;
+
+	@Autowired
+	TransactionLedger transactionLedger;
 
 	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
 
+	private final StripedLocks locks;
+
+	private final Set<String> hotAccountIds;
+
+	private final int hotAccountShards;
+
+	// balances of hot accounts, created on first use, their Account objects keep only the initial balance
+	private final Map<String, ShardedBalance> hotBalances = new ConcurrentHashMap<>();
+
+	private final PointInTimeExport export = new PointInTimeExport();
+
+	// bumped by every clear while all stripes are held, a transfer that looked its accounts up
+	// before the clear sees the change once it holds its own stripes
+	private volatile long clearGeneration;
+
+	@Autowired
+	public AccountsRepositoryInMemory(@Value("${accounts.lock.stripes:1024}") int lockStripes,
+			@Value("${accounts.hot.ids:}") String hotAccountIds,
+			@Value("${accounts.hot.shards:8}") int hotAccountShards) {
+		this.locks = new StripedLocks(lockStripes);
+		this.hotAccountIds = new HashSet<>(Arrays.asList(StringUtils.commaDelimitedListToStringArray(
+				StringUtils.trimAllWhitespace(hotAccountIds))));
+		this.hotAccountShards = hotAccountShards;
+	}
+
+	public AccountsRepositoryInMemory(int lockStripes) {
+		this(lockStripes, "", 1);
+	}
 
 	@Override
 	public void createAccount(Account account) throws DuplicateAccountIdException {
-		Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-		if (previousAccount != null) {
-			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+		insertAccount(account);
+		beforeAcknowledge();
+	}
+
+	/**
+	 * all accounts are inserted before the call waits once for them to be acknowledged
+	 */
+	@Override
+	public List<Account> createAccounts(List<Account> accounts) {
+		List<Account> duplicates = new ArrayList<>();
+		for (Account account : accounts) {
+			try {
+				insertAccount(account);
+			} catch (DuplicateAccountIdException e) {
+				duplicates.add(account);
+			}
+		}
+		beforeAcknowledge();
+		return duplicates;
+	}
+
+	private void insertAccount(Account account) {
+		// the journal and the replication stream store ids with a bounded length, checked before anything changes
+		if (account.getAccountId().length() > Account.MAX_ID_LENGTH) {
+			throw new IllegalArgumentException("account id must not be longer than " + Account.MAX_ID_LENGTH
+					+ " characters");
+		}
+		// the stripe lock orders the creation before any transfer that can see the new account
+		int stripe = locks.stripeFor(account.getAccountId());
+		long epoch = export.enter();
+		locks.lock(stripe, stripe);
+		try {
+			Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
+			if (previousAccount != null) {
+				throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+			}
+			PointInTimeExport.Cut cut = export.cut();
+			if (cut != null) {
+				cut.created(account.getAccountId(), epoch);
+			}
+			accountCreated(account);
+		} finally {
+			locks.unlock(stripe, stripe);
+			export.exit(epoch);
 		}
 	}
 
+	/**
+	 * answers with a detached snapshot without taking any lock, so reads never wait for transfers
+	 */
 	@Override
 	public Account getAccount(String accountId) {
-		return accounts.get(accountId);
+		Account account = accounts.get(accountId);
+		if (account == null) {
+			return null;
+		}
+		ShardedBalance shards = hotBalances.get(accountId);
+		if (shards == null) {
+			return account.snapshot();
+		}
+		// hot accounts hold their balance in the shards
+		Account summed = new Account(accountId);
+		summed.setMinorBalance(shards.consistentSum());
+		summed.setJournalPosition(account.getJournalPosition());
+		return summed;
 	}
 
+	/**
+	 * clears while every stripe is held, so no transfer of a cleared account is recorded after
+	 * the clear
+	 */
 	@Override
 	public void clearAccounts() {
-		accounts.clear();
+		int[] stripes = new int[locks.size()];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = i;
+		}
+		long epoch = export.enter();
+		locks.lockAll(stripes, stripes.length);
+		try {
+			accounts.clear();
+			hotBalances.clear();
+			transactionLedger.clear();
+			clearGeneration++;
+			accountsCleared();
+		} finally {
+			locks.unlockAll(stripes, stripes.length);
+			export.exit(epoch);
+		}
+		beforeAcknowledge();
 	}
 
 	/* (non-Javadoc)
@@ -47,39 +174,532 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
 	@Override
 	public void performTransaction(UserTransaction userTransaction)
 			throws AccountNotExistException, BalanceNotSufficientException {
+		long started = System.nanoTime();
+		try {
+			transfer(userTransaction);
+		} finally {
+			transferMetrics.recordTransfer(System.nanoTime() - started);
+		}
+	}
+
+	private void transfer(UserTransaction userTransaction) {
 		
 		//get meta data from transaction details
 		String accountFrom = userTransaction.getAccountFromId();
 		String accountTo = userTransaction.getAccountToId();
-		BigDecimal amount = userTransaction.getAmount();
+		long generation = clearGeneration;
 		
 		//validation for account from which transfer happen
-		if (accounts.get(accountFrom) == null) {
+		Account from = accounts.get(accountFrom);
+		if (from == null) {
+			transferMetrics.incrementAccountNotFound();
 			throw new AccountNotExistException("account does not exist! account id = "+accountFrom);
 		}
 		//validation for account to which transfer happen
-		if (accounts.get(accountTo) == null) {
+		Account to = accounts.get(accountTo);
+		if (to == null) {
+			transferMetrics.incrementAccountNotFound();
 			throw new AccountNotExistException("account does not exist! account id = "+accountTo);
 		}
 		
-		// validate balance is greater or equal to amount and then subtract from account from id  
-		accounts.computeIfPresent(accountFrom, (K,V) -> 
-		{
-			if (V.getBalance().compareTo(amount) == -1 ) {
-				throw new BalanceNotSufficientException("balance is no"
-						+ "t sufficient in account id = "+K);
-			}
-			V.setBalance(V.getBalance().subtract(amount));
-			notificationService.notifyAboutTransfer(V,"your account has been debited with amount "+amount);
-			return V;
-		});
+		ShardedBalance fromShards = shardsOf(from);
+		ShardedBalance toShards = shardsOf(to);
+		long epoch = export.enter();
+		try {
+			if (fromShards != null || toShards != null) {
+				transferSharded(userTransaction, epoch, generation, from, fromShards, to, toShards);
+			} else {
+				transferLocked(userTransaction, epoch, generation, from, to);
+			}
+		} finally {
+			export.exit(epoch);
+		}
+		beforeAcknowledge();
 		
-		// add amount to account to id
-		accounts.computeIfPresent(accountTo, (K,V) -> 
-		{
-			V.setBalance(V.getBalance().add(amount));
-			notificationService.notifyAboutTransfer(V,"your account has been credited with amount "+amount);
-			return V;
-		});
+		// notifications are only queued here, delivery happens on the dispatcher thread
+		BigDecimal decimalAmount = userTransaction.getAmount();
+		notificationDispatcher.publish(from,"your account has been debited with amount "+decimalAmount);
+		notificationDispatcher.publish(to,"your account has been credited with amount "+decimalAmount);
+	}
+
+	private void transferLocked(UserTransaction userTransaction, long epoch, long generation, Account from, Account to) {
+		long amount = userTransaction.getMinorAmount();
+		// debit and credit happen under the stripe locks of both accounts, so no other transfer
+		// touching either account can observe or interleave with a half applied transfer
+		int fromStripe = locks.stripeFor(from.getAccountId());
+		int toStripe = locks.stripeFor(to.getAccountId());
+		transferMetrics.recordLockWait(locks.lock(fromStripe, toStripe));
+		try {
+			ensureNotCleared(generation, from);
+			// validate balance is greater or equal to amount and then move it from account from id to account to id
+			long fromBalance = from.getMinorBalance();
+			if (fromBalance < amount) {
+				transferMetrics.incrementInsufficientBalance();
+				throw new BalanceNotSufficientException("balance is not sufficient in account id = "+from.getAccountId());
+			}
+			if (from != to) {
+				// overflow is checked before anything is written, so a failing credit leaves both accounts untouched
+				long toBalance = Math.addExact(to.getMinorBalance(), amount);
+				PointInTimeExport.Cut cut = export.cut();
+				if (cut != null) {
+					cut.beforeChange(from.getAccountId(), epoch, -amount, fromBalance);
+					cut.beforeChange(to.getAccountId(), epoch, amount, to.getMinorBalance());
+				}
+				from.setMinorBalance(fromBalance - amount);
+				to.setMinorBalance(toBalance);
+				recordLedger(from, to, amount, fromBalance - amount, toBalance);
+			}
+			transferCommitted(userTransaction, from, to);
+		} finally {
+			locks.unlock(fromStripe, toStripe);
+		}
+	}
+
+	/**
+	 * Transfer where at least one side is a hot account. A credit goes to one randomly picked
+	 * shard, a debit is first tried against one randomly picked shard only. If that shard is too
+	 * small the locks are released and taken again for all shards of the account, then the
+	 * amount is borrowed across them. All locks are stripes of the same pool and are taken in
+	 * ascending order, so mixing hot and plain accounts cannot deadlock.
+	 *
+	 * During an export the first change of a hot account after the cut takes all its shards,
+	 * so the copy of its balance is the sum of every shard.
+	 */
+	private void transferSharded(UserTransaction userTransaction, long epoch, long generation, Account from,
+			ShardedBalance fromShards, Account to, ShardedBalance toShards) {
+		long amount = userTransaction.getMinorAmount();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int debitShard = fromShards == null ? -1 : random.nextInt(fromShards.shards());
+		int creditShard = toShards == null ? -1 : random.nextInt(toShards.shards());
+		// a change before the cut or without a running export never needs all shards for the copy
+		PointInTimeExport.Cut started = export.cut();
+		boolean copyFrom = fromShards != null && from != to && started != null && started.after(epoch)
+				&& !started.copied(from.getAccountId());
+		boolean allCreditShards = toShards != null && from != to && started != null && started.after(epoch)
+				&& !started.copied(to.getAccountId());
+		// a hot account paying itself only needs its total checked
+		boolean allDebitShards = from == to || copyFrom;
+
+		while (true) {
+			int[] stripes = new int[(fromShards == null ? 1 : fromShards.shards())
+					+ (allCreditShards ? toShards.shards() : 1)];
+			int stripeCount = 0;
+			if (fromShards == null) {
+				stripes[stripeCount++] = locks.stripeFor(from.getAccountId());
+			} else if (allDebitShards) {
+				for (int shard = 0; shard < fromShards.shards(); shard++) {
+					stripes[stripeCount++] = fromShards.stripe(shard);
+				}
+			} else {
+				stripes[stripeCount++] = fromShards.stripe(debitShard);
+			}
+			if (from != to && allCreditShards) {
+				for (int shard = 0; shard < toShards.shards(); shard++) {
+					stripes[stripeCount++] = toShards.stripe(shard);
+				}
+			} else if (from != to) {
+				stripes[stripeCount++] = toShards == null ? locks.stripeFor(to.getAccountId()) : toShards.stripe(creditShard);
+			}
+			stripes = Arrays.copyOf(stripes, stripeCount);
+			int count = StripedLocks.order(stripes);
+			transferMetrics.recordLockWait(locks.lockAll(stripes, count));
+			try {
+				ensureNotCleared(generation, from);
+				long available = fromShards == null ? from.getMinorBalance()
+						: allDebitShards ? fromShards.sum() : fromShards.get(debitShard);
+				if (available < amount) {
+					if (fromShards != null && !allDebitShards) {
+						allDebitShards = true;
+						continue;
+					}
+					transferMetrics.incrementInsufficientBalance();
+					throw new BalanceNotSufficientException("balance is not sufficient in account id = "+from.getAccountId());
+				}
+				if (from != to) {
+					// overflow is checked before anything is written, so a failing credit leaves both accounts untouched
+					long credited = Math.addExact(toShards == null ? to.getMinorBalance() : toShards.get(creditShard), amount);
+					PointInTimeExport.Cut cut = export.cut();
+					if (cut != null) {
+						cut.beforeChange(from.getAccountId(), epoch, -amount,
+								fromShards == null ? available : allDebitShards ? available : 0);
+						cut.beforeChange(to.getAccountId(), epoch, amount,
+								toShards == null ? credited - amount : allCreditShards ? toShards.sum() : 0);
+					}
+					if (fromShards == null) {
+						from.setMinorBalance(available - amount);
+					} else if (!allDebitShards) {
+						fromShards.set(debitShard, available - amount);
+					} else {
+						fromShards.borrow(debitShard, amount);
+					}
+					if (toShards == null) {
+						to.setMinorBalance(credited);
+					} else {
+						toShards.set(creditShard, credited);
+					}
+					// only a single shard of a hot account is known here, not its balance
+					recordLedger(from, to, amount, fromShards == null ? available - amount : LedgerEntry.UNKNOWN_BALANCE,
+							toShards == null ? credited : LedgerEntry.UNKNOWN_BALANCE);
+				}
+				transferCommitted(userTransaction, from, to);
+				return;
+			} finally {
+				locks.unlockAll(stripes, count);
+			}
+		}
+	}
+
+	/**
+	 * under the stripe lock: the accounts looked up at the given generation were not cleared meanwhile
+	 */
+	private void ensureNotCleared(long generation, Account account) {
+		if (clearGeneration != generation) {
+			transferMetrics.incrementAccountNotFound();
+			throw new AccountNotExistException("account does not exist! account id = " + account.getAccountId());
+		}
+	}
+
+	@Override
+	public void performMultiLegTransaction(MultiLegTransaction transaction)
+			throws AccountNotExistException, BalanceNotSufficientException {
+		long started = System.nanoTime();
+		try {
+			transferMultiLeg(transaction);
+		} finally {
+			transferMetrics.recordTransfer(System.nanoTime() - started);
+		}
+	}
+
+	/**
+	 * an account of a multi-leg transfer with everything it pays and receives over all legs
+	 */
+	private static final class Party {
+
+		final Account account;
+
+		final ShardedBalance shards;
+
+		long debit;
+
+		long credit;
+
+		long balance;
+
+		Party(Account account, ShardedBalance shards) {
+			this.account = account;
+			this.shards = shards;
+		}
+	}
+
+	/**
+	 * Validates and applies all legs while the stripes of every involved account are held, taken
+	 * once in ascending order. Hot accounts are locked with all their shards, so their balance is
+	 * the exact sum. Each account is checked and changed once with what it pays and receives
+	 * over all legs, the single side is notified once about the total.
+	 */
+	private void transferMultiLeg(MultiLegTransaction transaction) {
+		boolean fanOut = transaction.isFanOut();
+		long generation = clearGeneration;
+		Map<String, Party> involved = new LinkedHashMap<>();
+		Party single = involved(involved, transaction.getAccountId());
+		for (MultiLegTransaction.Leg leg : transaction.getLegs()) {
+			Party other = involved(involved, leg.getAccountId());
+			long amount = leg.getMinorAmount();
+			Party payer = fanOut ? single : other;
+			Party payee = fanOut ? other : single;
+			payer.debit = Math.addExact(payer.debit, amount);
+			payee.credit = Math.addExact(payee.credit, amount);
+		}
+
+		int stripeCount = 0;
+		for (Party party : involved.values()) {
+			stripeCount += party.shards == null ? 1 : party.shards.shards();
+		}
+		int[] stripes = new int[stripeCount];
+		stripeCount = 0;
+		for (Party party : involved.values()) {
+			if (party.shards == null) {
+				stripes[stripeCount++] = locks.stripeFor(party.account.getAccountId());
+			} else {
+				for (int shard = 0; shard < party.shards.shards(); shard++) {
+					stripes[stripeCount++] = party.shards.stripe(shard);
+				}
+			}
+		}
+		int count = StripedLocks.order(stripes);
+
+		long epoch = export.enter();
+		transferMetrics.recordLockWait(locks.lockAll(stripes, count));
+		try {
+			ensureNotCleared(generation, single.account);
+			// every account is checked before anything is written, a failing leg leaves all accounts untouched
+			long[] after = new long[involved.size()];
+			int index = 0;
+			for (Party party : involved.values()) {
+				party.balance = party.shards == null ? party.account.getMinorBalance() : party.shards.sum();
+				if (party.balance < party.debit) {
+					transferMetrics.incrementInsufficientBalance();
+					throw new BalanceNotSufficientException("balance is not sufficient in account id = "+party.account.getAccountId());
+				}
+				after[index++] = Math.addExact(party.balance - party.debit, party.credit);
+			}
+			PointInTimeExport.Cut cut = export.cut();
+			index = 0;
+			for (Party party : involved.values()) {
+				long delta = after[index++] - party.balance;
+				if (delta == 0) {
+					continue;
+				}
+				if (cut != null) {
+					cut.beforeChange(party.account.getAccountId(), epoch, delta, party.balance);
+				}
+				if (party.shards == null) {
+					party.account.setMinorBalance(party.balance + delta);
+				} else if (delta < 0) {
+					party.shards.borrow(0, -delta);
+				} else {
+					party.shards.set(0, party.shards.get(0) + delta);
+				}
+			}
+			recordLedger(transaction, involved, single);
+			List<Account> changed = new ArrayList<>(involved.size());
+			for (Party party : involved.values()) {
+				changed.add(party.account);
+			}
+			multiLegCommitted(transaction, changed);
+		} finally {
+			locks.unlockAll(stripes, count);
+			export.exit(epoch);
+		}
+		beforeAcknowledge();
+
+		BigDecimal total = Money.toDecimal(transaction.getMinorTotal());
+		notificationDispatcher.publish(single.account, "your account has been " + (fanOut ? "debited" : "credited")
+				+ " with amount " + total + " in " + transaction.getLegs().size() + " transfers");
+		for (MultiLegTransaction.Leg leg : transaction.getLegs()) {
+			notificationDispatcher.publish(involved.get(leg.getAccountId()).account, "your account has been "
+					+ (fanOut ? "credited" : "debited") + " with amount " + leg.getAmount());
+		}
+	}
+
+	private Party involved(Map<String, Party> involved, String accountId) {
+		Party party = involved.get(accountId);
+		if (party == null) {
+			Account account = accounts.get(accountId);
+			if (account == null) {
+				transferMetrics.incrementAccountNotFound();
+				throw new AccountNotExistException("account does not exist! account id = "+accountId);
+			}
+			party = new Party(account, shardsOf(account));
+			involved.put(accountId, party);
+		}
+		return party;
+	}
+
+	/**
+	 * one pair of entries per leg, the balances run from the ones before the transfer in leg order
+	 */
+	private void recordLedger(MultiLegTransaction transaction, Map<String, Party> involved, Party single) {
+		if (!transactionLedger.isEnabled()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (MultiLegTransaction.Leg leg : transaction.getLegs()) {
+			Party other = involved.get(leg.getAccountId());
+			long amount = leg.getMinorAmount();
+			if (other == single) {
+				continue;
+			}
+			Party payer = transaction.isFanOut() ? single : other;
+			Party payee = transaction.isFanOut() ? other : single;
+			payer.balance -= amount;
+			payee.balance += amount;
+			transactionLedger.record(payer.account.getAccountId(), payee.account.getAccountId(), -amount, payer.balance, now);
+			transactionLedger.record(payee.account.getAccountId(), payer.account.getAccountId(), amount, payee.balance, now);
+		}
+	}
+
+	/**
+	 * called while the locks of both sides are held, so the ledger order of an account matches its balance changes
+	 */
+	private void recordLedger(Account from, Account to, long amount, long fromBalance, long toBalance) {
+		if (!transactionLedger.isEnabled()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		transactionLedger.record(from.getAccountId(), to.getAccountId(), -amount, fromBalance, now);
+		transactionLedger.record(to.getAccountId(), from.getAccountId(), amount, toBalance, now);
+	}
+
+	private ShardedBalance shardsOf(Account account) {
+		if (hotAccountIds.isEmpty() || !hotAccountIds.contains(account.getAccountId())) {
+			return null;
+		}
+		// the shards are seeded with the balance the account was created or restored with
+		return hotBalances.computeIfAbsent(account.getAccountId(),
+				accountId -> new ShardedBalance(locks, accountId, hotAccountShards, account.getMinorBalance()));
+	}
+
+	@Override
+	public boolean supportsExport() {
+		return true;
+	}
+
+	/**
+	 * Streams the balances as of the instant the export started. The accounts map is walked
+	 * without any lock, an account changed since that instant is reported with the copy its
+	 * first change made. Only those copies are held in memory, never the whole export.
+	 */
+	@Override
+	public long exportAccounts(BalanceVisitor visitor) throws IOException {
+		PointInTimeExport.Cut cut = export.begin();
+		try {
+			long exported = 0;
+			for (Account account : accounts.values()) {
+				ShardedBalance shards = hotBalances.get(account.getAccountId());
+				long live = shards == null ? account.getMinorBalance() : shards.consistentSum();
+				long minorBalance = cut.balanceAt(account.getAccountId(), live);
+				if (minorBalance != PointInTimeExport.CREATED_AFTER_CUT) {
+					visitor.visit(account.getAccountId(), minorBalance);
+					exported++;
+				}
+			}
+			return exported;
+		} finally {
+			export.end();
+		}
+	}
+
+	/**
+	 * called while the stripe lock of the new account is held, right after it became visible
+	 */
+	protected void accountCreated(Account account) {
+	}
+
+	/**
+	 * called while the stripe locks of both accounts are held, right after the balances changed
+	 */
+	protected void transferCommitted(UserTransaction userTransaction, Account from, Account to) {
+	}
+
+	/**
+	 * called while the stripe locks of every involved account are held, right after all balances changed
+	 */
+	protected void multiLegCommitted(MultiLegTransaction transaction, Collection<Account> accounts) {
+	}
+
+	protected void accountsCleared() {
+	}
+
+	/**
+	 * called after a change is applied and the locks are released, before the caller gets its answer
+	 */
+	protected void beforeAcknowledge() {
+	}
+
+	/**
+	 * receives an account together with its balance, which for hot accounts is the sum of their shards
+	 */
+	protected interface AccountVisitor {
+
+		void visit(Account account, long minorBalance);
+	}
+
+	/**
+	 * hands every account to the visitor while its stripe locks are held, one account at a time,
+	 * so the visitor sees the account between two changes without stopping other transfers
+	 */
+	protected void visitAccountsLocked(AccountVisitor visitor) {
+		for (Account account : accounts.values()) {
+			ShardedBalance shards = shardsOf(account);
+			int[] stripes = new int[shards == null ? 1 : shards.shards() + 1];
+			stripes[0] = locks.stripeFor(account.getAccountId());
+			for (int shard = 1; shard < stripes.length; shard++) {
+				stripes[shard] = shards.stripe(shard - 1);
+			}
+			int count = StripedLocks.order(stripes);
+			locks.lockAll(stripes, count);
+			try {
+				visitor.visit(account, shards == null ? account.getMinorBalance() : shards.sum());
+			} finally {
+				locks.unlockAll(stripes, count);
+			}
+		}
+	}
+
+	/**
+	 * Re-creates an account while the state is rebuilt, bypassing locks, hooks and notifications.
+	 * An account already restored with a newer journal position (from a snapshot) is kept.
+	 */
+	protected void restoreAccount(String accountId, long minorBalance, long journalPosition) {
+		Account existing = accounts.get(accountId);
+		if (existing != null && existing.getJournalPosition() >= journalPosition) {
+			return;
+		}
+		Account account = new Account(accountId);
+		account.setMinorBalance(minorBalance);
+		account.setJournalPosition(journalPosition);
+		accounts.put(accountId, account);
+	}
+
+	/**
+	 * Re-applies a committed transfer while the state is rebuilt. Each side is only changed if
+	 * it does not contain the transfer already, which is the case for accounts restored from a
+	 * snapshot written after the transfer.
+	 */
+	protected void restoreTransfer(String accountFromId, String accountToId, long minorAmount, long journalPosition) {
+		Account from = accounts.get(accountFromId);
+		Account to = accounts.get(accountToId);
+		if (from == null || to == null) {
+			throw new IllegalStateException("transfer from " + accountFromId + " to " + accountToId + " refers to an unknown account");
+		}
+		if (from == to) {
+			return;
+		}
+		if (from.getJournalPosition() < journalPosition) {
+			from.setMinorBalance(from.getMinorBalance() - minorAmount);
+			from.setJournalPosition(journalPosition);
+		}
+		if (to.getJournalPosition() < journalPosition) {
+			to.setMinorBalance(to.getMinorBalance() + minorAmount);
+			to.setJournalPosition(journalPosition);
+		}
+	}
+
+	/**
+	 * Re-applies a committed multi-leg transfer while the state is rebuilt, each account gets what
+	 * it pays and receives over all legs unless it contains the transfer already.
+	 */
+	protected void restoreMultiLeg(String accountId, boolean fanOut, String[] legAccountIds, long[] minorAmounts,
+			long journalPosition) {
+		// keyed by id, the equals and hashCode of an account include its balance
+		Map<String, Long> deltas = new LinkedHashMap<>();
+		restoredAccount(accountId);
+		for (int i = 0; i < legAccountIds.length; i++) {
+			restoredAccount(legAccountIds[i]);
+			long amount = fanOut ? minorAmounts[i] : -minorAmounts[i];
+			deltas.merge(accountId, -amount, Long::sum);
+			deltas.merge(legAccountIds[i], amount, Long::sum);
+		}
+		for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+			Account account = accounts.get(delta.getKey());
+			if (account.getJournalPosition() < journalPosition) {
+				account.setMinorBalance(account.getMinorBalance() + delta.getValue());
+				account.setJournalPosition(journalPosition);
+			}
+		}
+	}
+
+	private Account restoredAccount(String accountId) {
+		Account account = accounts.get(accountId);
+		if (account == null) {
+			throw new IllegalStateException("multi-leg transfer refers to an unknown account " + accountId);
+		}
+		return account;
+	}
+
+	protected void restoreCleared() {
+		accounts.clear();
+		hotBalances.clear();
 	}
 }
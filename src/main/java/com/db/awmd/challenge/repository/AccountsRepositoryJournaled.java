@@ -0,0 +1,205 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.UserTransaction;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory accounts that survive a restart.
+ *
+ * Every account creation and committed transfer is appended to a {@link TransactionJournal}
+ * while the account locks are held, so the journal order matches the order the changes were
+ * applied in. The call only returns once the journal is forced to disk.
+ *
+ * Every account remembers the journal position of its last change. A background task
+ * periodically writes an {@link AccountsSnapshot} tagged with the journal position it was
+ * started at, reading one account at a time under its lock. Startup loads the newest snapshot
+ * and replays only the journal after that position, records an account already contains are
+ * skipped by comparing positions.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.mode", havingValue = "journal")
+@Slf4j
+public class AccountsRepositoryJournaled extends AccountsRepositoryInMemory {
+
+	private static final int SNAPSHOTS_TO_KEEP = 2;
+
+	private final TransactionJournal journal;
+
+	private final Path snapshotDirectory;
+
+	private final ScheduledExecutorService snapshotScheduler;
+
+	@Autowired
+	public AccountsRepositoryJournaled(@Value("${accounts.lock.stripes:1024}") int lockStripes,
+			@Value("${accounts.hot.ids:}") String hotAccountIds,
+			@Value("${accounts.hot.shards:8}") int hotAccountShards,
+			@Value("${accounts.journal.path:data/accounts.journal}") String journalPath,
+			@Value("${accounts.journal.batch-size:512}") int batchSize,
+			@Value("${accounts.journal.flush-interval-ms:2}") long flushIntervalMillis,
+			@Value("${accounts.snapshot.directory:data/snapshots}") String snapshotDirectory,
+			@Value("${accounts.snapshot.interval-seconds:300}") long snapshotIntervalSeconds) throws IOException {
+		super(lockStripes, hotAccountIds, hotAccountShards);
+		long started = System.currentTimeMillis();
+		this.snapshotDirectory = Paths.get(snapshotDirectory);
+		long replayFrom = loadLatestSnapshot();
+		this.journal = new TransactionJournal(Paths.get(journalPath), replayFrom, new Replay(), batchSize,
+				flushIntervalMillis);
+		log.info("Restored accounts from snapshot at {} and {} bytes of journal {} in {} ms", replayFrom,
+				journal.position() - replayFrom, journalPath, System.currentTimeMillis() - started);
+
+		this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "accounts-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (snapshotIntervalSeconds > 0) {
+			snapshotScheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalSeconds,
+					snapshotIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		snapshotScheduler.shutdownNow();
+		journal.close();
+	}
+
+	/**
+	 * Writes a snapshot of all accounts while transfers go on. The snapshot is tagged with the
+	 * journal position taken before the first account is read, everything up to it is applied
+	 * already, and every account carries the position of its own last change on top. It is only
+	 * committed once the journal is durable past every change it contains, a snapshot ahead of
+	 * the journal on disk would make a restart skip records appended after the crash.
+	 *
+	 * @return the snapshot file
+	 */
+	public Path snapshot() throws IOException {
+		long journalPosition = journal.position();
+		try (AccountsSnapshot.Writer writer = new AccountsSnapshot.Writer(snapshotDirectory, journalPosition)) {
+			IOException[] failure = new IOException[1];
+			visitAccountsLocked((account, minorBalance) -> {
+				if (failure[0] == null) {
+					try {
+						writer.add(account.getAccountId(), minorBalance, account.getJournalPosition());
+					} catch (IOException e) {
+						failure[0] = e;
+					}
+				}
+			});
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			// the balances read may contain records still buffered by the journal
+			journal.awaitDurable(journal.position());
+			Path snapshot = writer.commit();
+			deleteOldSnapshots();
+			return snapshot;
+		}
+	}
+
+	@Override
+	protected void accountCreated(Account account) {
+		account.setJournalPosition(journal.appendAccountCreated(account.getAccountId(), account.getMinorBalance()));
+	}
+
+	@Override
+	protected void transferCommitted(UserTransaction userTransaction, Account from, Account to) {
+		long position = journal.appendTransfer(userTransaction.getAccountFromId(), userTransaction.getAccountToId(),
+				userTransaction.getMinorAmount());
+		// transfers on different shards of a hot account append concurrently, the position only moves forward
+		from.advanceJournalPosition(position);
+		to.advanceJournalPosition(position);
+	}
+
+	@Override
+	protected void multiLegCommitted(MultiLegTransaction transaction, Collection<Account> accounts) {
+		long position = journal.appendMultiLeg(transaction);
+		for (Account account : accounts) {
+			account.advanceJournalPosition(position);
+		}
+	}
+
+	@Override
+	protected void accountsCleared() {
+		journal.appendCleared();
+	}
+
+	@Override
+	protected void beforeAcknowledge() {
+		// the caller's record is appended already, waiting for the current end covers it
+		journal.awaitDurable(journal.position());
+	}
+
+	private long loadLatestSnapshot() throws IOException {
+		for (Path snapshot : AccountsSnapshot.list(snapshotDirectory)) {
+			try {
+				return AccountsSnapshot.read(snapshot, this::restoreAccount);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Snapshot {} is not readable, trying an older one", snapshot, e);
+				restoreCleared();
+			}
+		}
+		return 0;
+	}
+
+	private void snapshotQuietly() {
+		try {
+			long started = System.currentTimeMillis();
+			Path snapshot = snapshot();
+			log.info("Wrote snapshot {} in {} ms", snapshot, System.currentTimeMillis() - started);
+		} catch (IOException | RuntimeException e) {
+			log.error("Writing snapshot failed", e);
+		}
+	}
+
+	private void deleteOldSnapshots() throws IOException {
+		List<Path> snapshots = AccountsSnapshot.list(snapshotDirectory);
+		for (Path old : snapshots.subList(Math.min(SNAPSHOTS_TO_KEEP, snapshots.size()), snapshots.size())) {
+			Files.deleteIfExists(old);
+		}
+	}
+
+	private class Replay implements TransactionJournal.Visitor {
+
+		@Override
+		public void accountCreated(long position, String accountId, long balance) {
+			restoreAccount(accountId, balance, position);
+		}
+
+		@Override
+		public void transferred(long position, String accountFromId, String accountToId, long amount) {
+			restoreTransfer(accountFromId, accountToId, amount, position);
+		}
+
+		@Override
+		public void cleared(long position) {
+			restoreCleared();
+		}
+
+		@Override
+		public void multiLegTransferred(long position, String accountId, boolean fanOut, String[] legAccountIds,
+				long[] amounts) {
+			restoreMultiLeg(accountId, fanOut, legAccountIds, amounts, position);
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.UserTransaction;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory accounts that stream every committed change to followers over tcp, see
+ * {@link AccountsRepositoryFollower}.
+ *
+ * Every account creation, committed transfer and clear gets the next sequence number while
+ * the account locks are still held, so the sequence order matches the order the changes were
+ * applied in, and is queued for every connected follower in that order. A frame on the wire
+ * is [sequence][record in the {@link TransactionJournal} format]. Heartbeats carrying the
+ * leader clock go through the same sequence, a follower that applied one has applied every
+ * change committed before it was sent.
+ *
+ * A new follower is registered first and then gets all accounts as they are, read one at a
+ * time under their locks into an {@link AccountsSnapshot} and sent as creations tagged with
+ * the sequence of the last change of each account, followed by the changes queued meanwhile.
+ * Changes the snapshot already contains are skipped by the follower by comparing sequences.
+ * A follower too slow to keep its queue below accounts.replication.follower-queue is
+ * disconnected and starts over with a new snapshot once it reconnects.
+ *
+ * The port only listens on accounts.replication.bind-address, 127.0.0.1 unless configured.
+ * Before anything is sent a follower has to prove it knows accounts.replication.secret by
+ * answering a random nonce with its HMAC-SHA256, the secret itself never goes over the wire.
+ * The stream after that is not encrypted, across hosts it belongs on a trusted network.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.mode", havingValue = "leader")
+@Slf4j
+public class AccountsRepositoryLeader extends AccountsRepositoryInMemory {
+
+	// replication only records, next to the journal record types
+	static final byte HEARTBEAT = 64;
+
+	static final byte SNAPSHOT_END = 65;
+
+	static final int NONCE_SIZE = 16;
+
+	private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+	private final ServerSocket serverSocket;
+
+	private final Path snapshotDirectory;
+
+	private final int followerQueue;
+
+	private final byte[] secret;
+
+	private final SecureRandom random = new SecureRandom();
+
+	private final List<FollowerSession> followers = new CopyOnWriteArrayList<>();
+
+	// assigns the sequence and queues the frame as one step, so every follower sees the same order
+	private final ReentrantLock publishLock = new ReentrantLock();
+
+	// one bootstrap snapshot at a time, they share the directory
+	private final ReentrantLock bootstrapLock = new ReentrantLock();
+
+	private final ScheduledExecutorService heartbeatScheduler;
+
+	private long sequence;
+
+	private volatile boolean closed;
+
+	@Autowired
+	public AccountsRepositoryLeader(@Value("${accounts.lock.stripes:1024}") int lockStripes,
+			@Value("${accounts.hot.ids:}") String hotAccountIds,
+			@Value("${accounts.hot.shards:8}") int hotAccountShards,
+			@Value("${accounts.replication.bind-address:127.0.0.1}") String bindAddress,
+			@Value("${accounts.replication.port:18090}") int port,
+			@Value("${accounts.replication.secret:}") String secret,
+			@Value("${accounts.replication.snapshot-directory:data/replication}") String snapshotDirectory,
+			@Value("${accounts.replication.follower-queue:262144}") int followerQueue,
+			@Value("${accounts.replication.heartbeat-ms:50}") long heartbeatMillis) throws IOException {
+		super(lockStripes, hotAccountIds, hotAccountShards);
+		this.snapshotDirectory = Paths.get(snapshotDirectory);
+		this.followerQueue = followerQueue;
+		this.secret = secret(secret);
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port));
+		Thread acceptor = new Thread(this::acceptFollowers, "replication-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		this.heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "replication-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		heartbeatScheduler.scheduleAtFixedRate(
+				() -> publish(ByteBuffer.allocate(9).put(HEARTBEAT).putLong(System.currentTimeMillis()).array()),
+				heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+		log.info("Accepting replication followers on {}:{}", bindAddress, port());
+	}
+
+	static byte[] secret(String secret) {
+		if (secret == null || secret.isEmpty()) {
+			throw new IllegalArgumentException("accounts.replication.secret must be set, followers authenticate with it");
+		}
+		return secret.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * what a follower answers the nonce of the leader with
+	 */
+	static byte[] proof(byte[] secret, byte[] nonce) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+			return mac.doFinal(nonce);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		closed = true;
+		heartbeatScheduler.shutdownNow();
+		serverSocket.close();
+		for (FollowerSession follower : followers) {
+			follower.close();
+		}
+	}
+
+	/**
+	 * the port followers connect to, the actual one when configured as 0
+	 */
+	public int port() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	protected void accountCreated(Account account) {
+		account.setJournalPosition(
+				publish(TransactionJournal.encodeAccountCreated(account.getAccountId(), account.getMinorBalance())));
+	}
+
+	@Override
+	protected void transferCommitted(UserTransaction userTransaction, Account from, Account to) {
+		long sequence = publish(TransactionJournal.encodeTransfer(userTransaction.getAccountFromId(),
+				userTransaction.getAccountToId(), userTransaction.getMinorAmount()));
+		// transfers on different shards of a hot account publish concurrently, the sequence only moves forward
+		from.advanceJournalPosition(sequence);
+		to.advanceJournalPosition(sequence);
+	}
+
+	@Override
+	protected void multiLegCommitted(MultiLegTransaction transaction, Collection<Account> accounts) {
+		long sequence = publish(TransactionJournal.encodeMultiLeg(transaction));
+		for (Account account : accounts) {
+			account.advanceJournalPosition(sequence);
+		}
+	}
+
+	@Override
+	protected void accountsCleared() {
+		publish(TransactionJournal.encodeCleared());
+	}
+
+	/**
+	 * @return the sequence of the record
+	 */
+	private long publish(byte[] payload) {
+		publishLock.lock();
+		try {
+			Frame frame = new Frame(++sequence, payload);
+			for (FollowerSession follower : followers) {
+				if (!follower.queue.offer(frame)) {
+					log.warn("Follower {} fell {} changes behind, disconnecting it", follower.name, followerQueue);
+					follower.close();
+				}
+			}
+			return frame.sequence;
+		} finally {
+			publishLock.unlock();
+		}
+	}
+
+	private void acceptFollowers() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Thread sender = new Thread(new FollowerSession(socket)::run, "replication-" + socket.getRemoteSocketAddress());
+				sender.setDaemon(true);
+				sender.start();
+			} catch (IOException e) {
+				if (!closed) {
+					log.error("Accepting a follower failed", e);
+				}
+			}
+		}
+	}
+
+	private static final class Frame {
+
+		final long sequence;
+
+		final byte[] payload;
+
+		Frame(long sequence, byte[] payload) {
+			this.sequence = sequence;
+			this.payload = payload;
+		}
+	}
+
+	private final class FollowerSession {
+
+		final Socket socket;
+
+		final String name;
+
+		final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(followerQueue);
+
+		FollowerSession(Socket socket) {
+			this.socket = socket;
+			this.name = String.valueOf(socket.getRemoteSocketAddress());
+		}
+
+		void run() {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+				if (!authenticate(out)) {
+					log.warn("Follower {} failed to authenticate, closing the connection", name);
+					return;
+				}
+				long registeredAt;
+				publishLock.lock();
+				try {
+					registeredAt = sequence;
+					followers.add(this);
+				} finally {
+					publishLock.unlock();
+				}
+				long accounts = sendSnapshot(out, registeredAt);
+				writeFrame(out, registeredAt, new byte[] { SNAPSHOT_END });
+				out.flush();
+				log.info("Follower {} got {} accounts as of sequence {}", name, accounts, registeredAt);
+
+				while (!socket.isClosed()) {
+					Frame frame = queue.poll();
+					if (frame == null) {
+						// nothing more right now, send what is buffered before waiting
+						out.flush();
+						frame = queue.poll(1, TimeUnit.SECONDS);
+						if (frame == null) {
+							continue;
+						}
+					}
+					writeFrame(out, frame.sequence, frame.payload);
+				}
+			} catch (IOException | RuntimeException e) {
+				if (!closed && !socket.isClosed()) {
+					log.warn("Replication to follower {} stopped", name, e);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				close();
+			}
+		}
+
+		private boolean authenticate(DataOutputStream out) throws IOException {
+			byte[] nonce = new byte[NONCE_SIZE];
+			random.nextBytes(nonce);
+			out.write(nonce);
+			out.flush();
+			byte[] answer = new byte[32];
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+			new DataInputStream(socket.getInputStream()).readFully(answer);
+			socket.setSoTimeout(0);
+			return MessageDigest.isEqual(proof(secret, nonce), answer);
+		}
+
+		/**
+		 * the snapshot is written to disk first so the account locks are never held while waiting
+		 * for the network
+		 */
+		private long sendSnapshot(DataOutputStream out, long registeredAt) throws IOException {
+			bootstrapLock.lock();
+			try (AccountsSnapshot.Writer writer = new AccountsSnapshot.Writer(snapshotDirectory, registeredAt)) {
+				IOException[] failure = new IOException[1];
+				visitAccountsLocked((account, minorBalance) -> {
+					if (failure[0] == null) {
+						try {
+							writer.add(account.getAccountId(), minorBalance, account.getJournalPosition());
+						} catch (IOException e) {
+							failure[0] = e;
+						}
+					}
+				});
+				if (failure[0] != null) {
+					throw failure[0];
+				}
+				Path snapshot = writer.commit();
+				try {
+					long[] accounts = new long[1];
+					IOException[] sendFailure = new IOException[1];
+					AccountsSnapshot.read(snapshot, (accountId, minorBalance, accountSequence) -> {
+						if (sendFailure[0] == null) {
+							try {
+								writeFrame(out, accountSequence, TransactionJournal.encodeAccountCreated(accountId, minorBalance));
+								accounts[0]++;
+							} catch (IOException e) {
+								sendFailure[0] = e;
+							}
+						}
+					});
+					if (sendFailure[0] != null) {
+						throw sendFailure[0];
+					}
+					return accounts[0];
+				} finally {
+					Files.deleteIfExists(snapshot);
+				}
+			} finally {
+				bootstrapLock.unlock();
+			}
+		}
+
+		private void writeFrame(DataOutputStream out, long sequence, byte[] payload) throws IOException {
+			out.writeLong(sequence);
+			TransactionJournal.writeRecord(out, payload);
+		}
+
+		void close() {
+			followers.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.debug("Closing follower {} failed", name, e);
+			}
+		}
+	}
+}
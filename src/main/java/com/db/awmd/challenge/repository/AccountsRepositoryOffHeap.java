@@ -0,0 +1,253 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+/**
+ * Accounts kept in an {@link OffHeapAccountTable}, so the heap holds no object per account.
+ *
+ * Locking follows the in-memory repository: every access to an account holds the stripe lock
+ * of its id, a transfer holds both in ascending order. The stripe is picked from the same 64
+ * bit hash as the slot. Creating an account additionally holds one insert lock, which keeps
+ * the probe sequences of the table consistent. Account objects only exist for the duration of
+ * a call (answers, notifications), they are never stored. The transaction ledger lives on the
+ * heap and grows with the accounts that transfer, so it is only kept with accounts.offheap.ledger.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.mode", havingValue = "offheap")
+public class AccountsRepositoryOffHeap implements AccountsRepository {
+
+	@Autowired
+	NotificationDispatcher notificationDispatcher;
+
+	@Autowired
+	TransferMetrics transferMetrics;
+
+	@Autowired
+	TransactionLedger transactionLedger;
+
+	private final OffHeapAccountTable table;
+
+	private final StripedLocks locks;
+
+	private final boolean ledger;
+
+	private final ReentrantLock insertLock = new ReentrantLock();
+
+	private final PointInTimeExport export = new PointInTimeExport();
+
+	@Autowired
+	public AccountsRepositoryOffHeap(@Value("${accounts.lock.stripes:1024}") int lockStripes,
+			@Value("${accounts.offheap.capacity:1048576}") long capacity,
+			@Value("${accounts.offheap.ledger:false}") boolean ledger) {
+		this.locks = new StripedLocks(lockStripes);
+		this.table = new OffHeapAccountTable(capacity);
+		this.ledger = ledger;
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		byte[] id = OffHeapAccountTable.encode(account.getAccountId());
+		if (id == null) {
+			throw new IllegalArgumentException("account id " + account.getAccountId() + " is longer than "
+					+ OffHeapAccountTable.MAX_ID_BYTES + " bytes");
+		}
+		long hash = OffHeapAccountTable.hash(id);
+		int stripe = stripeFor(hash);
+		long epoch = export.enter();
+		locks.lock(stripe, stripe);
+		insertLock.lock();
+		try {
+			if (table.find(id, hash) >= 0) {
+				throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+			}
+			table.insert(id, hash, account.getMinorBalance());
+			PointInTimeExport.Cut cut = export.cut();
+			if (cut != null) {
+				cut.created(account.getAccountId(), epoch);
+			}
+		} finally {
+			insertLock.unlock();
+			locks.unlock(stripe, stripe);
+			export.exit(epoch);
+		}
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		byte[] id = OffHeapAccountTable.encode(accountId);
+		if (id == null) {
+			return null;
+		}
+		long hash = OffHeapAccountTable.hash(id);
+		int stripe = stripeFor(hash);
+		locks.lock(stripe, stripe);
+		try {
+			long slot = table.find(id, hash);
+			return slot < 0 ? null : account(accountId, table.balance(slot));
+		} finally {
+			locks.unlock(stripe, stripe);
+		}
+	}
+
+	@Override
+	public void clearAccounts() {
+		int[] stripes = new int[locks.size()];
+		for (int stripe = 0; stripe < stripes.length; stripe++) {
+			stripes[stripe] = stripe;
+		}
+		locks.lockAll(stripes, stripes.length);
+		insertLock.lock();
+		try {
+			table.clear();
+			transactionLedger.clear();
+		} finally {
+			insertLock.unlock();
+			locks.unlockAll(stripes, stripes.length);
+		}
+	}
+
+	@Override
+	public void performTransaction(UserTransaction userTransaction)
+			throws AccountNotExistException, BalanceNotSufficientException {
+		long started = System.nanoTime();
+		try {
+			transfer(userTransaction);
+		} finally {
+			transferMetrics.recordTransfer(System.nanoTime() - started);
+		}
+	}
+
+	private void transfer(UserTransaction userTransaction) {
+		String accountFrom = userTransaction.getAccountFromId();
+		String accountTo = userTransaction.getAccountToId();
+		byte[] fromId = OffHeapAccountTable.encode(accountFrom);
+		byte[] toId = OffHeapAccountTable.encode(accountTo);
+		// an id that does not fit into a slot was never created
+		if (fromId == null || toId == null) {
+			transferMetrics.incrementAccountNotFound();
+			throw new AccountNotExistException("account does not exist! account id = "+(fromId == null ? accountFrom : accountTo));
+		}
+		long fromHash = OffHeapAccountTable.hash(fromId);
+		long toHash = OffHeapAccountTable.hash(toId);
+		long amount = userTransaction.getMinorAmount();
+		int fromStripe = stripeFor(fromHash);
+		int toStripe = stripeFor(toHash);
+		long fromBalance;
+		long toBalance;
+
+		long epoch = export.enter();
+		transferMetrics.recordLockWait(locks.lock(fromStripe, toStripe));
+		try {
+			long fromSlot = table.find(fromId, fromHash);
+			if (fromSlot < 0) {
+				transferMetrics.incrementAccountNotFound();
+				throw new AccountNotExistException("account does not exist! account id = "+accountFrom);
+			}
+			long toSlot = table.find(toId, toHash);
+			if (toSlot < 0) {
+				transferMetrics.incrementAccountNotFound();
+				throw new AccountNotExistException("account does not exist! account id = "+accountTo);
+			}
+			fromBalance = table.balance(fromSlot);
+			if (fromBalance < amount) {
+				transferMetrics.incrementInsufficientBalance();
+				throw new BalanceNotSufficientException("balance is not sufficient in account id = "+accountFrom);
+			}
+			toBalance = table.balance(toSlot);
+			if (fromSlot != toSlot) {
+				// overflow is checked before anything is written, so a failing credit leaves both accounts untouched
+				long credited = Math.addExact(toBalance, amount);
+				PointInTimeExport.Cut cut = export.cut();
+				if (cut != null) {
+					cut.beforeChange(accountFrom, epoch, -amount, fromBalance);
+					cut.beforeChange(accountTo, epoch, amount, toBalance);
+				}
+				fromBalance -= amount;
+				toBalance = credited;
+				table.setBalance(fromSlot, fromBalance);
+				table.setBalance(toSlot, toBalance);
+				if (ledger) {
+					long now = System.currentTimeMillis();
+					transactionLedger.record(accountFrom, accountTo, -amount, fromBalance, now);
+					transactionLedger.record(accountTo, accountFrom, amount, toBalance, now);
+				}
+			}
+		} finally {
+			locks.unlock(fromStripe, toStripe);
+			export.exit(epoch);
+		}
+
+		BigDecimal decimalAmount = userTransaction.getAmount();
+		notificationDispatcher.publish(account(accountFrom, fromBalance),"your account has been debited with amount "+decimalAmount);
+		notificationDispatcher.publish(account(accountTo, toBalance),"your account has been credited with amount "+decimalAmount);
+	}
+
+	@Override
+	public boolean supportsExport() {
+		return true;
+	}
+
+	/**
+	 * Walks all slots of the table, the balances are the ones of the instant the export started,
+	 * see {@link PointInTimeExport}. Each slot is read under its stripe lock, the visitor is
+	 * called without any lock held.
+	 */
+	@Override
+	public long exportAccounts(BalanceVisitor visitor) throws IOException {
+		PointInTimeExport.Cut cut = export.begin();
+		try {
+			long exported = 0;
+			for (long slot = 0; slot < table.capacity(); slot++) {
+				long hash = table.hashAt(slot);
+				if (hash == 0) {
+					// accounts created before the export are visible here, the wait for the old epoch ordered them
+					continue;
+				}
+				int stripe = stripeFor(hash);
+				String accountId;
+				long live;
+				locks.lock(stripe, stripe);
+				try {
+					accountId = table.accountId(slot);
+					live = table.balance(slot);
+				} finally {
+					locks.unlock(stripe, stripe);
+				}
+				long minorBalance = cut.balanceAt(accountId, live);
+				if (minorBalance != PointInTimeExport.CREATED_AFTER_CUT) {
+					visitor.visit(accountId, minorBalance);
+					exported++;
+				}
+			}
+			return exported;
+		} finally {
+			export.end();
+		}
+	}
+
+	private int stripeFor(long hash) {
+		// the high bits, the low bits already pick the slot
+		return (int) (hash >>> 40) & (locks.size() - 1);
+	}
+
+	private static Account account(String accountId, long minorBalance) {
+		Account account = new Account(accountId);
+		account.setMinorBalance(minorBalance);
+		return account;
+	}
+}
@@ -0,0 +1,342 @@
+package com.db.awmd.challenge.repository;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.CommandRing.Command;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Accounts changed by single writer threads instead of locks.
+ *
+ * Accounts are partitioned by id hash, every partition owns a {@link CommandRing} and one
+ * thread that applies its commands one after the other, so the balances of a partition are
+ * only ever written by that thread and need no locks. Callers publish their command and wait
+ * for its future. A transfer is published to the partition of the debited account. If the
+ * credited account lives in another partition, the debit is applied first and the credit is
+ * forwarded to the other partition, the caller is answered once the credit is applied too.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.mode", havingValue = "sequencer")
+@Slf4j
+public class AccountsRepositorySequenced implements AccountsRepository {
+
+	@Autowired
+	NotificationDispatcher notificationDispatcher;
+
+	@Autowired
+	TransferMetrics transferMetrics;
+
+	@Autowired
+	TransactionLedger transactionLedger;
+
+	private static final long JOIN_MILLIS = 5000;
+
+	private final Partition[] partitions;
+
+	private final Thread[] threads;
+
+	private volatile boolean running = true;
+
+	@Autowired
+	public AccountsRepositorySequenced(@Value("${accounts.sequencer.partitions:4}") int partitions,
+			@Value("${accounts.sequencer.ring-size:65536}") int ringSize) {
+		if (partitions < 1) {
+			throw new IllegalArgumentException("number of sequencer partitions must be positive, was " + partitions);
+		}
+		this.partitions = new Partition[partitions];
+		this.threads = new Thread[partitions];
+		for (int i = 0; i < partitions; i++) {
+			this.partitions[i] = new Partition(ringSize);
+			threads[i] = new Thread(this.partitions[i], "sequencer-" + i);
+			threads[i].setDaemon(true);
+			this.partitions[i].ring.consumer(threads[i]);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * stops the partition threads, then fails the commands they did not get to so no caller
+	 * waits forever
+	 */
+	@PreDestroy
+	public void close() {
+		running = false;
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			try {
+				thread.join(JOIN_MILLIS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+			if (thread.isAlive()) {
+				log.warn("Sequencer thread {} did not stop within {} ms", thread.getName(), JOIN_MILLIS);
+			}
+		}
+		IllegalStateException failure = new IllegalStateException("the sequencer is shut down");
+		for (Partition partition : partitions) {
+			partition.ring.close(failure);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		await(partitionOf(account.getAccountId()).ring.publish(CommandRing.CREATE, account, null));
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		Account account = partitionOf(accountId).accounts.get(accountId);
+		return account == null ? null : account.snapshot();
+	}
+
+	@Override
+	public void clearAccounts() {
+		CompletableFuture<?>[] cleared = new CompletableFuture<?>[partitions.length];
+		for (int i = 0; i < partitions.length; i++) {
+			cleared[i] = partitions[i].ring.publish(CommandRing.CLEAR, null, null);
+		}
+		await(CompletableFuture.allOf(cleared));
+		transactionLedger.clear();
+	}
+
+	@Override
+	public void performTransaction(UserTransaction userTransaction)
+			throws AccountNotExistException, BalanceNotSufficientException {
+		long started = System.nanoTime();
+		try {
+			await(partitionOf(userTransaction.getAccountFromId()).ring.publish(CommandRing.TRANSFER, null,
+					userTransaction));
+		} finally {
+			transferMetrics.recordTransfer(System.nanoTime() - started);
+		}
+
+		// notifications are only queued here, delivery happens on the dispatcher thread
+		BigDecimal decimalAmount = userTransaction.getAmount();
+		notify(userTransaction.getAccountFromId(), "your account has been debited with amount " + decimalAmount);
+		notify(userTransaction.getAccountToId(), "your account has been credited with amount " + decimalAmount);
+	}
+
+	/**
+	 * the partition thread completes the transfer, the executor only queues the notifications
+	 */
+	@Override
+	public CompletableFuture<Void> performTransactionAsync(UserTransaction userTransaction, Executor executor) {
+		long started = System.nanoTime();
+		CompletableFuture<Void> done = partitionOf(userTransaction.getAccountFromId()).ring.publish(CommandRing.TRANSFER,
+				null, userTransaction);
+		return done.whenComplete((result, failure) -> transferMetrics.recordTransfer(System.nanoTime() - started))
+				.thenRunAsync(() -> {
+					BigDecimal decimalAmount = userTransaction.getAmount();
+					notify(userTransaction.getAccountFromId(), "your account has been debited with amount " + decimalAmount);
+					notify(userTransaction.getAccountToId(), "your account has been credited with amount " + decimalAmount);
+				}, command -> {
+					// the transfer is applied already, a full executor must not fail it
+					try {
+						executor.execute(command);
+					} catch (RejectedExecutionException e) {
+						command.run();
+					}
+				});
+	}
+
+	private void notify(String accountId, String transferDescription) {
+		Account account = getAccount(accountId);
+		// the account may have been cleared since the transfer was applied
+		if (account != null) {
+			notificationDispatcher.publish(account, transferDescription);
+		}
+	}
+
+	private Partition partitionOf(String accountId) {
+		return partitions[StripedLocks.hash(accountId) % partitions.length];
+	}
+
+	/**
+	 * waits for a command and rethrows what the partition thread failed it with
+	 */
+	private static void await(CompletableFuture<?> done) {
+		try {
+			done.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private final class Partition implements Runnable {
+
+		private final CommandRing ring;
+
+		// only written by the partition thread, read by everyone
+		private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+		private Partition(int ringSize) {
+			this.ring = new CommandRing(ringSize);
+		}
+
+		@Override
+		public void run() {
+			int idleRounds = 0;
+			while (running) {
+				boolean worked = false;
+				// forwarded credits first, they complete transfers other partitions already debited
+				Command forwarded;
+				while ((forwarded = ring.pollMailbox()) != null) {
+					apply(forwarded);
+					worked = true;
+				}
+				Command command = ring.peek();
+				if (command != null) {
+					try {
+						apply(command);
+					} finally {
+						ring.release(command);
+					}
+					worked = true;
+				}
+				if (worked) {
+					idleRounds = 0;
+				} else {
+					ring.idle(idleRounds++);
+				}
+			}
+		}
+
+		private void apply(Command command) {
+			CompletableFuture<Void> done = command.done;
+			try {
+				switch (command.type) {
+				case CommandRing.CREATE:
+					create(command.account);
+					done.complete(null);
+					break;
+				case CommandRing.TRANSFER:
+					transfer(command.transaction, done);
+					break;
+				case CommandRing.CREDIT:
+					credit(command.transaction, done);
+					break;
+				case CommandRing.REFUND:
+					refund(command.transaction, done, command.failure);
+					break;
+				case CommandRing.CLEAR:
+					accounts.clear();
+					done.complete(null);
+					break;
+				default:
+					throw new IllegalStateException("unknown command type " + command.type);
+				}
+			} catch (RuntimeException e) {
+				done.completeExceptionally(e);
+			}
+		}
+
+		private void create(Account account) {
+			Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
+			if (previousAccount != null) {
+				throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+			}
+		}
+
+		private void transfer(UserTransaction userTransaction, CompletableFuture<Void> done) {
+			String accountFrom = userTransaction.getAccountFromId();
+			String accountTo = userTransaction.getAccountToId();
+			long amount = userTransaction.getMinorAmount();
+
+			Account from = accounts.get(accountFrom);
+			if (from == null) {
+				transferMetrics.incrementAccountNotFound();
+				throw new AccountNotExistException("account does not exist! account id = " + accountFrom);
+			}
+			Partition target = partitionOf(accountTo);
+			Account to = target.accounts.get(accountTo);
+			if (to == null) {
+				transferMetrics.incrementAccountNotFound();
+				throw new AccountNotExistException("account does not exist! account id = " + accountTo);
+			}
+			long fromBalance = from.getMinorBalance();
+			if (fromBalance < amount) {
+				transferMetrics.incrementInsufficientBalance();
+				throw new BalanceNotSufficientException("balance is not sufficient in account id = " + accountFrom);
+			}
+			if (from == to) {
+				done.complete(null);
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (target == this) {
+				long toBalance = Math.addExact(to.getMinorBalance(), amount);
+				from.setMinorBalance(fromBalance - amount);
+				to.setMinorBalance(toBalance);
+				transactionLedger.record(accountFrom, accountTo, -amount, fromBalance - amount, now);
+				transactionLedger.record(accountTo, accountFrom, amount, toBalance, now);
+				done.complete(null);
+				return;
+			}
+			// the amount is in flight between the partitions until the credit is applied
+			from.setMinorBalance(fromBalance - amount);
+			transactionLedger.record(accountFrom, accountTo, -amount, fromBalance - amount, now);
+			target.ring.forward(new Command(CommandRing.CREDIT, userTransaction, done));
+		}
+
+		private void credit(UserTransaction userTransaction, CompletableFuture<Void> done) {
+			Account to = accounts.get(userTransaction.getAccountToId());
+			long amount = userTransaction.getMinorAmount();
+			try {
+				if (to == null) {
+					throw new AccountNotExistException(
+							"account does not exist! account id = " + userTransaction.getAccountToId());
+				}
+				long toBalance = Math.addExact(to.getMinorBalance(), amount);
+				to.setMinorBalance(toBalance);
+				transactionLedger.record(to.getAccountId(), userTransaction.getAccountFromId(), amount, toBalance,
+						System.currentTimeMillis());
+				done.complete(null);
+			} catch (RuntimeException e) {
+				// the debit is already applied in the other partition, give the amount back there
+				Command refund = new Command(CommandRing.REFUND, userTransaction, done);
+				refund.failure = e;
+				partitionOf(userTransaction.getAccountFromId()).ring.forward(refund);
+			}
+		}
+
+		private void refund(UserTransaction userTransaction, CompletableFuture<Void> done, RuntimeException failure) {
+			Account from = accounts.get(userTransaction.getAccountFromId());
+			if (from != null) {
+				long fromBalance = from.getMinorBalance() + userTransaction.getMinorAmount();
+				from.setMinorBalance(fromBalance);
+				transactionLedger.record(from.getAccountId(), userTransaction.getAccountToId(),
+						userTransaction.getMinorAmount(), fromBalance, System.currentTimeMillis());
+			} else {
+				log.warn("Cannot refund {}, the account was removed meanwhile", userTransaction);
+			}
+			done.completeExceptionally(failure);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package com.db.awmd.challenge.repository;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+
+/**
+ * Accounts hash-partitioned into shards, each shard owned by a single threaded executor.
+ *
+ * Everything touching the accounts of a shard runs on its executor, so a shard needs no locks
+ * and shards never share state. A transfer inside one shard is a single task. A transfer
+ * between two shards runs in two phases: first the debit is reserved in the shard of the
+ * debited account (the amount leaves the balance and is held by the reservation) while the
+ * shard of the credited account checks the credit can be applied. Only if both succeed the
+ * credit is applied and the reservation dropped, otherwise the reservation puts the amount
+ * back. Money is therefore either in an account or held by a reservation of its shard, never
+ * in between. Tasks never wait for other shards, the caller coordinates both phases.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.mode", havingValue = "sharded")
+public class AccountsRepositorySharded implements AccountsRepository {
+
+	@Autowired
+	NotificationDispatcher notificationDispatcher;
+
+	@Autowired
+	TransferMetrics transferMetrics;
+
+	@Autowired
+	TransactionLedger transactionLedger;
+
+	private final Shard[] shards;
+
+	private final AtomicLong reservationIds = new AtomicLong();
+
+	@Autowired
+	public AccountsRepositorySharded(@Value("${accounts.sharded.shards:0}") int shards) {
+		int count = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+		this.shards = new Shard[count];
+		for (int i = 0; i < count; i++) {
+			this.shards[i] = new Shard(i);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		for (Shard shard : shards) {
+			shard.executor.shutdown();
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		Shard shard = shardOf(account.getAccountId());
+		await(shard.run(() -> {
+			Account previousAccount = shard.accounts.putIfAbsent(account.getAccountId(), account);
+			if (previousAccount != null) {
+				throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+			}
+			return null;
+		}));
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		Account account = shardOf(accountId).accounts.get(accountId);
+		return account == null ? null : account.snapshot();
+	}
+
+	@Override
+	public void clearAccounts() {
+		CompletableFuture<?>[] cleared = new CompletableFuture<?>[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			Shard shard = shards[i];
+			cleared[i] = shard.run(() -> {
+				shard.accounts.clear();
+				shard.reservations.clear();
+				return null;
+			});
+		}
+		await(CompletableFuture.allOf(cleared));
+		transactionLedger.clear();
+	}
+
+	@Override
+	public void performTransaction(UserTransaction userTransaction)
+			throws AccountNotExistException, BalanceNotSufficientException {
+		long started = System.nanoTime();
+		try {
+			Shard fromShard = shardOf(userTransaction.getAccountFromId());
+			Shard toShard = shardOf(userTransaction.getAccountToId());
+			if (fromShard == toShard) {
+				transferMetrics.incrementLocalTransfer();
+				await(fromShard.run(() -> fromShard.transferLocal(userTransaction)));
+			} else {
+				transferMetrics.incrementCrossShardTransfer();
+				transferCrossShard(userTransaction, fromShard, toShard);
+			}
+		} finally {
+			transferMetrics.recordTransfer(System.nanoTime() - started);
+		}
+
+		// notifications are only queued here, delivery happens on the dispatcher thread
+		BigDecimal decimalAmount = userTransaction.getAmount();
+		notify(userTransaction.getAccountFromId(), "your account has been debited with amount " + decimalAmount);
+		notify(userTransaction.getAccountToId(), "your account has been credited with amount " + decimalAmount);
+	}
+
+	private void transferCrossShard(UserTransaction userTransaction, Shard fromShard, Shard toShard) {
+		long reservationId = reservationIds.incrementAndGet();
+		CompletableFuture<Void> debit = fromShard.run(() -> fromShard.reserveDebit(reservationId, userTransaction));
+		CompletableFuture<Void> credit = toShard.run(() -> toShard.checkCredit(userTransaction));
+		RuntimeException debitFailure = failureOf(debit);
+		RuntimeException creditFailure = failureOf(credit);
+
+		if (debitFailure == null && creditFailure == null) {
+			// the credit was checked, but a concurrent credit may still overflow it, then the debit is aborted
+			creditFailure = failureOf(toShard.run(() -> toShard.applyCredit(userTransaction)));
+			if (creditFailure == null) {
+				await(fromShard.run(() -> fromShard.commitDebit(reservationId)));
+				return;
+			}
+		}
+		if (debitFailure == null) {
+			transferMetrics.incrementAbortedTransfer();
+			await(fromShard.run(() -> fromShard.abortDebit(reservationId)));
+		}
+		// report what the lock based repository would, a missing account before a short balance
+		if (debitFailure instanceof AccountNotExistException || creditFailure == null) {
+			throw debitFailure;
+		}
+		if (creditFailure instanceof AccountNotExistException || debitFailure == null) {
+			throw creditFailure;
+		}
+		throw debitFailure;
+	}
+
+	private void notify(String accountId, String transferDescription) {
+		Account account = getAccount(accountId);
+		// the account may have been cleared since the transfer was applied
+		if (account != null) {
+			notificationDispatcher.publish(account, transferDescription);
+		}
+	}
+
+	private Shard shardOf(String accountId) {
+		return shards[StripedLocks.hash(accountId) % shards.length];
+	}
+
+	private static RuntimeException failureOf(CompletableFuture<?> done) {
+		try {
+			await(done);
+			return null;
+		} catch (RuntimeException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * waits for a shard task and rethrows what it failed with
+	 */
+	private static void await(CompletableFuture<?> done) {
+		try {
+			done.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private final class Shard {
+
+		private final ExecutorService executor;
+
+		// only written by the shard executor, read by everyone
+		private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+		// debits of cross-shard transfers that are not committed yet, only used by the shard executor
+		private final Map<Long, UserTransaction> reservations = new HashMap<>();
+
+		private Shard(int index) {
+			this.executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "accounts-shard-" + index);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		private <T> CompletableFuture<T> run(Supplier<T> task) {
+			return CompletableFuture.supplyAsync(task, executor);
+		}
+
+		private Void transferLocal(UserTransaction userTransaction) {
+			Account from = existing(userTransaction.getAccountFromId());
+			Account to = existing(userTransaction.getAccountToId());
+			long amount = userTransaction.getMinorAmount();
+			long fromBalance = sufficient(from, amount);
+			if (from != to) {
+				long toBalance = Math.addExact(to.getMinorBalance(), amount);
+				from.setMinorBalance(fromBalance - amount);
+				to.setMinorBalance(toBalance);
+				long now = System.currentTimeMillis();
+				transactionLedger.record(from.getAccountId(), to.getAccountId(), -amount, fromBalance - amount, now);
+				transactionLedger.record(to.getAccountId(), from.getAccountId(), amount, toBalance, now);
+			}
+			return null;
+		}
+
+		private Void reserveDebit(long reservationId, UserTransaction userTransaction) {
+			Account from = existing(userTransaction.getAccountFromId());
+			long amount = userTransaction.getMinorAmount();
+			long fromBalance = sufficient(from, amount);
+			from.setMinorBalance(fromBalance - amount);
+			reservations.put(reservationId, userTransaction);
+			// recorded where the balance changes, so the history keeps the order of the changes on this shard
+			transactionLedger.record(from.getAccountId(), userTransaction.getAccountToId(), -amount, fromBalance - amount,
+					System.currentTimeMillis());
+			return null;
+		}
+
+		private Void commitDebit(long reservationId) {
+			reservations.remove(reservationId);
+			return null;
+		}
+
+		private Void abortDebit(long reservationId) {
+			UserTransaction userTransaction = reservations.remove(reservationId);
+			// nothing to give back if the accounts were cleared meanwhile
+			if (userTransaction != null) {
+				Account from = accounts.get(userTransaction.getAccountFromId());
+				if (from != null) {
+					long fromBalance = from.getMinorBalance() + userTransaction.getMinorAmount();
+					from.setMinorBalance(fromBalance);
+					// reverses the entry of the reservation
+					transactionLedger.record(from.getAccountId(), userTransaction.getAccountToId(),
+							userTransaction.getMinorAmount(), fromBalance, System.currentTimeMillis());
+				}
+			}
+			return null;
+		}
+
+		private Void checkCredit(UserTransaction userTransaction) {
+			Account to = existing(userTransaction.getAccountToId());
+			Math.addExact(to.getMinorBalance(), userTransaction.getMinorAmount());
+			return null;
+		}
+
+		private Void applyCredit(UserTransaction userTransaction) {
+			Account to = existing(userTransaction.getAccountToId());
+			long toBalance = Math.addExact(to.getMinorBalance(), userTransaction.getMinorAmount());
+			to.setMinorBalance(toBalance);
+			transactionLedger.record(to.getAccountId(), userTransaction.getAccountFromId(),
+					userTransaction.getMinorAmount(), toBalance, System.currentTimeMillis());
+			return null;
+		}
+
+		private Account existing(String accountId) {
+			Account account = accounts.get(accountId);
+			if (account == null) {
+				transferMetrics.incrementAccountNotFound();
+				throw new AccountNotExistException("account does not exist! account id = " + accountId);
+			}
+			return account;
+		}
+
+		private long sufficient(Account account, long amount) {
+			long balance = account.getMinorBalance();
+			if (balance < amount) {
+				transferMetrics.incrementInsufficientBalance();
+				throw new BalanceNotSufficientException("balance is not sufficient in account id = " + account.getAccountId());
+			}
+			return balance;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary snapshot of all accounts, written to and read from memory-mapped files.
+ *
+ * A snapshot file is named after the journal position it covers. Layout is a header
+ * [magic][journal position][account count] followed by one entry per account
+ * [id length][id utf-8][balance][journal position of the last change of the account].
+ * The file is mapped in windows, so it may grow beyond what a single mapping can hold.
+ */
+public class AccountsSnapshot {
+
+	public interface EntryVisitor {
+
+		void entry(String accountId, long minorBalance, long journalPosition);
+	}
+
+	private static final int MAGIC = 0x41434354;
+
+	private static final int HEADER_SIZE = 4 + 8 + 8;
+
+	private static final int MAX_ENTRY_SIZE = 2 + 0xFFFF + 8 + 8;
+
+	private static final long WINDOW_SIZE = 64L << 20;
+
+	private static final String PREFIX = "snapshot-";
+
+	private static final String SUFFIX = ".snap";
+
+	private AccountsSnapshot() {
+	}
+
+	/**
+	 * Writer for a new snapshot, entries are appended one by one and the file only gets its
+	 * final name in {@link #commit()}, so a crash never leaves a half written snapshot behind.
+	 */
+	public static class Writer implements AutoCloseable {
+
+		private final Path directory;
+
+		private final Path tempFile;
+
+		private final long journalPosition;
+
+		private final FileChannel channel;
+
+		private MappedByteBuffer window;
+
+		private long windowStart;
+
+		private long count;
+
+		public Writer(Path directory, long journalPosition) throws IOException {
+			Files.createDirectories(directory);
+			this.directory = directory;
+			this.journalPosition = journalPosition;
+			this.tempFile = directory.resolve(PREFIX + journalPosition + ".tmp");
+			this.channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.window = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_SIZE);
+			this.window.position(HEADER_SIZE);
+		}
+
+		public void add(String accountId, long minorBalance, long accountJournalPosition) throws IOException {
+			byte[] id = TransactionJournal.encodeId(accountId);
+			if (window.remaining() < 2 + id.length + 16) {
+				long position = windowStart + window.position();
+				window.force();
+				window = channel.map(FileChannel.MapMode.READ_WRITE, position, WINDOW_SIZE);
+				windowStart = position;
+			}
+			window.putShort((short) id.length).put(id).putLong(minorBalance).putLong(accountJournalPosition);
+			count++;
+		}
+
+		/**
+		 * @return the committed snapshot file
+		 */
+		public Path commit() throws IOException {
+			long length = windowStart + window.position();
+			window.force();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.putInt(MAGIC).putLong(journalPosition).putLong(count);
+			header.force();
+			window = null;
+			channel.truncate(length);
+			channel.force(true);
+			channel.close();
+			Path target = directory.resolve(PREFIX + journalPosition + SUFFIX);
+			return Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (channel.isOpen()) {
+				channel.close();
+				Files.deleteIfExists(tempFile);
+			}
+		}
+	}
+
+	/**
+	 * reads all entries of a snapshot file
+	 *
+	 * @return the journal position the snapshot covers
+	 */
+	public static long read(Path file, EntryVisitor visitor) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_SIZE));
+			long windowStart = 0;
+			if (window.getInt() != MAGIC) {
+				throw new IOException("not an accounts snapshot: " + file);
+			}
+			long journalPosition = window.getLong();
+			long count = window.getLong();
+			for (long i = 0; i < count; i++) {
+				if (window.remaining() < MAX_ENTRY_SIZE && windowStart + window.limit() < size) {
+					long position = windowStart + window.position();
+					window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, WINDOW_SIZE));
+					windowStart = position;
+				}
+				byte[] id = new byte[window.getShort() & 0xFFFF];
+				window.get(id);
+				visitor.entry(new String(id, StandardCharsets.UTF_8), window.getLong(), window.getLong());
+			}
+			return journalPosition;
+		}
+	}
+
+	/**
+	 * committed snapshots of the directory, newest (highest journal position) first
+	 */
+	public static List<Path> list(Path directory) throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return snapshots;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			for (Path file : files) {
+				snapshots.add(file);
+			}
+		}
+		snapshots.sort(Collections.reverseOrder((first, second) -> Long.compare(positionOf(first), positionOf(second))));
+		return snapshots;
+	}
+
+	private static long positionOf(Path snapshot) {
+		String name = snapshot.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+}
@@ -0,0 +1,204 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+
+/**
+ * Pre-allocated multi-producer, single-consumer ring of commands.
+ *
+ * Producers claim a sequence number, wait until the consumer has released the slot of that
+ * number from the previous lap, fill the slot in place and publish it by writing the sequence
+ * into it. The consumer takes slots strictly in sequence order. Slots are reused, so
+ * publishing allocates nothing but the future of the caller. Commands consumers send to each
+ * other go through an unbounded mailbox instead, so two consumers never block on each
+ * other's full ring. A consumer with nothing to do parks until the next publish wakes it.
+ * Once closed, publishing fails right away and every command still waiting is failed.
+ */
+final class CommandRing {
+
+	static final byte CREATE = 1;
+
+	static final byte TRANSFER = 2;
+
+	static final byte CREDIT = 3;
+
+	static final byte REFUND = 4;
+
+	static final byte CLEAR = 5;
+
+	static final class Command {
+
+		private volatile long published = -1;
+
+		byte type;
+
+		Account account;
+
+		UserTransaction transaction;
+
+		CompletableFuture<Void> done;
+
+		RuntimeException failure;
+
+		Command() {
+		}
+
+		Command(byte type, UserTransaction transaction, CompletableFuture<Void> done) {
+			this.type = type;
+			this.transaction = transaction;
+			this.done = done;
+		}
+	}
+
+	private static final int SPIN_ROUNDS = 100;
+
+	private static final int YIELD_ROUNDS = 200;
+
+	private final Command[] slots;
+
+	private final int mask;
+
+	private final AtomicLong claimed = new AtomicLong();
+
+	private final AtomicLong released = new AtomicLong();
+
+	private final Queue<Command> mailbox = new ConcurrentLinkedQueue<>();
+
+	private volatile boolean sleeping;
+
+	private volatile Thread consumer;
+
+	private volatile RuntimeException closed;
+
+	CommandRing(int size) {
+		int capacity = Integer.highestOneBit(Math.max(2, size));
+		if (capacity < size) {
+			capacity <<= 1;
+		}
+		this.slots = new Command[capacity];
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new Command();
+		}
+		this.mask = capacity - 1;
+	}
+
+	void consumer(Thread consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * called by any thread, blocks while the ring is full
+	 */
+	CompletableFuture<Void> publish(byte type, Account account, UserTransaction transaction) {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		if (closed != null) {
+			done.completeExceptionally(closed);
+			return done;
+		}
+		long sequence = claimed.getAndIncrement();
+		while (sequence - released.get() >= slots.length) {
+			if (closed != null) {
+				done.completeExceptionally(closed);
+				return done;
+			}
+			// the consumer is a full lap behind, back off until it frees our slot
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+		}
+		Command slot = slots[(int) (sequence & mask)];
+		slot.type = type;
+		slot.account = account;
+		slot.transaction = transaction;
+		slot.done = done;
+		slot.published = sequence;
+		// closed meanwhile, close() may not have seen the slot
+		if (closed != null) {
+			done.completeExceptionally(closed);
+		}
+		wake();
+		return done;
+	}
+
+	/**
+	 * called by other consumers, never blocks
+	 */
+	void forward(Command command) {
+		mailbox.add(command);
+		wake();
+	}
+
+	/**
+	 * consumer only: next forwarded command, or null
+	 */
+	Command pollMailbox() {
+		return mailbox.poll();
+	}
+
+	/**
+	 * consumer only: the next published slot, which stays owned by the consumer until {@link #release(Command)}
+	 */
+	Command peek() {
+		long next = released.get();
+		Command slot = slots[(int) (next & mask)];
+		return slot.published == next ? slot : null;
+	}
+
+	void release(Command slot) {
+		slot.account = null;
+		slot.transaction = null;
+		slot.done = null;
+		released.lazySet(released.get() + 1);
+	}
+
+	/**
+	 * consumer only: spin, then yield, then park until woken, depending on how long it was idle already
+	 */
+	void idle(int idleRounds) {
+		if (idleRounds < SPIN_ROUNDS) {
+			return;
+		}
+		if (idleRounds < YIELD_ROUNDS) {
+			Thread.yield();
+			return;
+		}
+		sleeping = true;
+		// a publish that did not see the flag is seen here instead
+		if (peek() == null && mailbox.isEmpty()) {
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		sleeping = false;
+	}
+
+	/**
+	 * fails all commands still in the ring or the mailbox and every later publish, called once the
+	 * consumer has stopped
+	 */
+	void close(RuntimeException failure) {
+		closed = failure;
+		Command command;
+		while ((command = mailbox.poll()) != null) {
+			command.done.completeExceptionally(failure);
+		}
+		for (Command slot : slots) {
+			// the volatile read makes the fields of a published slot visible
+			if (slot.published >= 0) {
+				CompletableFuture<Void> done = slot.done;
+				if (done != null) {
+					done.completeExceptionally(failure);
+				}
+			}
+		}
+	}
+
+	private void wake() {
+		if (sleeping) {
+			LockSupport.unpark(consumer);
+		}
+	}
+}
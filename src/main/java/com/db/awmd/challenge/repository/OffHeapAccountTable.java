@@ -0,0 +1,182 @@
+package com.db.awmd.challenge.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Open addressing hash table of accounts in direct memory, outside of the java heap.
+ *
+ * Every account takes one fixed 64 byte slot [id hash][balance][id length][id utf-8], so the
+ * garbage collector sees a handful of buffers no matter how many accounts there are. Slots are
+ * found by linear probing from the id hash, the full id is only compared when the hash
+ * matches. Slots are never moved or freed (only all at once by {@link #clear()}), so the slot
+ * of an account stays valid for its lifetime. The capacity is fixed, the table refuses new
+ * accounts once three quarters of the slots are taken.
+ *
+ * The table does no locking of its own: inserts must be serialized by the caller and every
+ * access to a slot must be ordered after the insert of its account, e.g. by a lock.
+ */
+final class OffHeapAccountTable {
+
+	static final int MAX_ID_BYTES = 46;
+
+	private static final int SLOT_SIZE = 64;
+
+	private static final int BALANCE = 8;
+
+	private static final int ID_LENGTH = 16;
+
+	private static final int ID = 18;
+
+	// 2^24 slots of 64 bytes make one buffer of 1 GiB, below the 2 GiB limit of a ByteBuffer
+	private static final int SEGMENT_BITS = 24;
+
+	private final ByteBuffer[] segments;
+
+	private final long mask;
+
+	private final long maxSize;
+
+	private long size;
+
+	OffHeapAccountTable(long capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("capacity must be at least 2, was " + capacity);
+		}
+		long slots = Long.highestOneBit(capacity);
+		if (slots < capacity) {
+			slots <<= 1;
+		}
+		int segmentSlots = (int) Math.min(slots, 1L << SEGMENT_BITS);
+		this.segments = new ByteBuffer[(int) (slots / segmentSlots)];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = ByteBuffer.allocateDirect(segmentSlots * SLOT_SIZE).order(ByteOrder.nativeOrder());
+		}
+		this.mask = slots - 1;
+		this.maxSize = slots / 4 * 3;
+	}
+
+	/**
+	 * @return the utf-8 id, null if it does not fit into a slot
+	 */
+	static byte[] encode(String accountId) {
+		byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+		return id.length > MAX_ID_BYTES ? null : id;
+	}
+
+	/**
+	 * 64 bit hash of an encoded id, never 0 which marks a free slot
+	 */
+	static long hash(byte[] id) {
+		// fnv-1a followed by the murmur3 finalizer to spread the bits over the whole long
+		long h = 0xcbf29ce484222325L;
+		for (byte b : id) {
+			h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * @return the slot of the account, -1 if there is none
+	 */
+	long find(byte[] id, long hash) {
+		for (long slot = hash & mask;; slot = (slot + 1) & mask) {
+			long slotHash = hashAt(slot);
+			if (slotHash == 0) {
+				return -1;
+			}
+			if (slotHash == hash && idEquals(slot, id)) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * adds an account that must not exist yet, the hash is written last so the slot only
+	 * becomes visible once complete
+	 *
+	 * @return the slot of the new account
+	 */
+	long insert(byte[] id, long hash, long minorBalance) {
+		if (size >= maxSize) {
+			throw new IllegalStateException("off-heap account table is full with " + size + " accounts");
+		}
+		long slot = hash & mask;
+		while (hashAt(slot) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		segment.putLong(offset + BALANCE, minorBalance);
+		segment.putShort(offset + ID_LENGTH, (short) id.length);
+		for (int i = 0; i < id.length; i++) {
+			segment.put(offset + ID + i, id[i]);
+		}
+		segment.putLong(offset, hash);
+		size++;
+		return slot;
+	}
+
+	long hashAt(long slot) {
+		return segment(slot).getLong(offset(slot));
+	}
+
+	long balance(long slot) {
+		return segment(slot).getLong(offset(slot) + BALANCE);
+	}
+
+	void setBalance(long slot, long minorBalance) {
+		segment(slot).putLong(offset(slot) + BALANCE, minorBalance);
+	}
+
+	String accountId(long slot) {
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		byte[] id = new byte[segment.getShort(offset + ID_LENGTH)];
+		for (int i = 0; i < id.length; i++) {
+			id[i] = segment.get(offset + ID + i);
+		}
+		return new String(id, StandardCharsets.UTF_8);
+	}
+
+	long capacity() {
+		return mask + 1;
+	}
+
+	void clear() {
+		for (ByteBuffer segment : segments) {
+			for (int offset = 0; offset < segment.capacity(); offset += SLOT_SIZE) {
+				segment.putLong(offset, 0);
+			}
+		}
+		size = 0;
+	}
+
+	private boolean idEquals(long slot, byte[] id) {
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		if (segment.getShort(offset + ID_LENGTH) != id.length) {
+			return false;
+		}
+		for (int i = 0; i < id.length; i++) {
+			if (segment.get(offset + ID + i) != id[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private ByteBuffer segment(long slot) {
+		return segments[(int) (slot >>> SEGMENT_BITS)];
+	}
+
+	private static int offset(long slot) {
+		return (int) (slot & ((1L << SEGMENT_BITS) - 1)) * SLOT_SIZE;
+	}
+}
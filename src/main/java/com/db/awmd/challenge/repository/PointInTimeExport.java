@@ -0,0 +1,171 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Epochs that let an export read all balances as of one instant while transfers keep running.
+ *
+ * Every change enters the current epoch before it takes any account lock and leaves it once
+ * the locks are released. An export starts a new epoch and waits until the changes of the
+ * previous epoch are gone, the cut is everything of the previous epochs and nothing of the
+ * new one. Changes of the new epoch copy the balance of an account before they touch it
+ * for the first time, changes of the previous epoch that are still running add their
+ * amount to such a copy. Only accounts changed during the export are copied, all others
+ * are read straight from the live account.
+ *
+ * In flight changes are counted per thread cell, a thread always enters and leaves on the
+ * same cell so no cell ever goes negative and a scan that finds all cells empty is exact.
+ */
+final class PointInTimeExport {
+
+	/**
+	 * copy of an account created after the cut, it is not part of the export
+	 */
+	static final long CREATED_AFTER_CUT = Long.MIN_VALUE;
+
+	private static final int CELLS = 64;
+
+	// 8 longs per cell, so two cells never share a cache line
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray inFlight = new AtomicLongArray(2 * CELLS * PADDING);
+
+	private final ReentrantLock exportLock = new ReentrantLock();
+
+	private volatile long epoch;
+
+	private volatile Cut cut;
+
+	/**
+	 * @return the epoch of the change, hand it back to {@link #exit(long)}
+	 */
+	long enter() {
+		int cell = cell();
+		while (true) {
+			long current = epoch;
+			int index = index(current, cell);
+			inFlight.incrementAndGet(index);
+			// an export that started meanwhile may already be waiting for the old epoch
+			if (epoch == current) {
+				return current;
+			}
+			inFlight.decrementAndGet(index);
+		}
+	}
+
+	void exit(long changeEpoch) {
+		inFlight.decrementAndGet(index(changeEpoch, cell()));
+	}
+
+	/**
+	 * the running export, read it while the locks of the changed account are held
+	 */
+	Cut cut() {
+		return cut;
+	}
+
+	/**
+	 * Starts an export, one at a time. Returns once every change of the previous epoch is
+	 * finished, which takes as long as the slowest transfer in flight.
+	 */
+	Cut begin() {
+		exportLock.lock();
+		Cut started = new Cut(epoch + 1);
+		// the cut is published before the epoch moves, every change of the new epoch sees it
+		cut = started;
+		epoch = started.epoch;
+		while (!quiescent(started.epoch - 1)) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+		}
+		return started;
+	}
+
+	/**
+	 * must be called by the thread that started the export
+	 */
+	void end() {
+		cut = null;
+		exportLock.unlock();
+	}
+
+	private boolean quiescent(long oldEpoch) {
+		for (int cell = 0; cell < CELLS; cell++) {
+			if (inFlight.get(index(oldEpoch, cell)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int cell() {
+		return (int) (Thread.currentThread().getId() & (CELLS - 1));
+	}
+
+	// two epochs are enough, an export waits for the previous epoch before a third can start
+	private static int index(long epoch, int cell) {
+		return ((int) (epoch & 1) * CELLS + cell) * PADDING;
+	}
+
+	/**
+	 * balances at the cut of accounts changed since then
+	 */
+	static final class Cut {
+
+		private final long epoch;
+
+		private final ConcurrentHashMap<String, Long> preImages = new ConcurrentHashMap<>();
+
+		private Cut(long epoch) {
+			this.epoch = epoch;
+		}
+
+		/**
+		 * true if a change of the given epoch is after the cut
+		 */
+		boolean after(long changeEpoch) {
+			return changeEpoch >= epoch;
+		}
+
+		boolean copied(String accountId) {
+			return preImages.containsKey(accountId);
+		}
+
+		/**
+		 * called while the account is locked, before its balance changes by delta. For a hot
+		 * account after the cut the balance is only passed by the caller holding all its shards,
+		 * otherwise it must already be copied.
+		 */
+		void beforeChange(String accountId, long changeEpoch, long delta, long minorBalance) {
+			if (after(changeEpoch)) {
+				preImages.putIfAbsent(accountId, minorBalance);
+			} else {
+				// a change of the old epoch belongs to the cut, so the copy gets it as well
+				preImages.computeIfPresent(accountId, (id, balance) -> balance + delta);
+			}
+		}
+
+		void created(String accountId, long changeEpoch) {
+			if (after(changeEpoch)) {
+				preImages.put(accountId, CREATED_AFTER_CUT);
+			}
+		}
+
+		/**
+		 * the balance at the cut, the live balance must be read before this is called
+		 */
+		long balanceAt(String accountId, long liveBalance) {
+			// a change after the cut copies the account before it writes, so a missing copy
+			// means the live balance was read before any such change
+			Long preImage = preImages.get(accountId);
+			return preImage == null ? liveBalance : preImage;
+		}
+
+		int copies() {
+			return preImages.size();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Balance of a hot account split into shards.
+ *
+ * Every shard is guarded by its own stripe of the repository's {@link StripedLocks}, so
+ * transfers touching different shards of the same account run in parallel while the usual
+ * ascending stripe order keeps them deadlock free. The account balance is the sum of all
+ * shards, each shard sits on its own cache line next to a version that every change of the
+ * shard bumps twice, odd while the change is in progress.
+ */
+class ShardedBalance {
+
+	private static final int PADDING = 8;
+
+	// slot of the version within the cache line of a shard, the balance is at slot 0
+	private static final int VERSION = 1;
+
+	private final AtomicLongArray balances;
+
+	private final int[] stripes;
+
+	ShardedBalance(StripedLocks locks, String accountId, int shards, long initialBalance) {
+		this.balances = new AtomicLongArray(shards * PADDING);
+		this.stripes = new int[shards];
+		for (int i = 0; i < shards; i++) {
+			stripes[i] = locks.stripeFor(accountId + '#' + i);
+		}
+		balances.set(0, initialBalance);
+	}
+
+	int shards() {
+		return stripes.length;
+	}
+
+	int stripe(int shard) {
+		return stripes[shard];
+	}
+
+	/**
+	 * only call while the stripe of the shard is locked
+	 */
+	long get(int shard) {
+		return balances.get(shard * PADDING);
+	}
+
+	/**
+	 * only call while the stripe of the shard is locked
+	 */
+	void set(int shard, long balance) {
+		int index = shard * PADDING;
+		long version = balances.get(index + VERSION);
+		balances.set(index + VERSION, version + 1);
+		balances.set(index, balance);
+		balances.set(index + VERSION, version + 2);
+	}
+
+	/**
+	 * Takes the amount from the preferred shard first and the rest from the following shards.
+	 * The stripes of all shards must be locked and their sum must cover the amount.
+	 */
+	void borrow(int preferredShard, long amount) {
+		long remaining = amount;
+		for (int i = 0; i < shards() && remaining > 0; i++) {
+			int shard = (preferredShard + i) % shards();
+			long balance = get(shard);
+			long taken = Math.min(balance, remaining);
+			set(shard, balance - taken);
+			remaining -= taken;
+		}
+	}
+
+	/**
+	 * Sum of all shards without any lock, as they all were at one moment. Every shard is read
+	 * with its version and the versions are read again afterwards: if none changed, every shard
+	 * held its value from its first read until the second pass started, so all of them held it
+	 * at once in between. Changes on other shards in the middle of the sum, or a borrow half
+	 * done, make it start over.
+	 */
+	long consistentSum() {
+		long[] versions = new long[stripes.length];
+		retry: while (true) {
+			long sum = 0;
+			for (int i = 0; i < versions.length; i++) {
+				versions[i] = balances.get(i * PADDING + VERSION);
+				if ((versions[i] & 1) != 0) {
+					continue retry;
+				}
+				sum += balances.get(i * PADDING);
+			}
+			for (int i = 0; i < versions.length; i++) {
+				if (balances.get(i * PADDING + VERSION) != versions[i]) {
+					continue retry;
+				}
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * sum of all shards, only consistent while the stripes of all shards are locked
+	 */
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			sum += balances.get(i * PADDING);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,119 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of locks addressed by account id hash.
+ *
+ * Whenever more than one stripe is needed they are always taken in ascending
+ * stripe order, so two transfers can never wait on each other in a cycle. The
+ * pool size is rounded up to a power of two, a bigger pool means less chance
+ * that two unrelated account pairs share a stripe.
+ *
+ * The stripes are ReentrantLocks on purpose, never monitors: a virtual thread waiting for a
+ * stripe unmounts from its carrier, with synchronized it would pin it until the lock is free.
+ */
+public class StripedLocks {
+
+	private final ReentrantLock[] locks;
+
+	private final int mask;
+
+	public StripedLocks(int stripes) {
+		if (stripes < 1) {
+			throw new IllegalArgumentException("number of lock stripes must be positive, was " + stripes);
+		}
+		int size = Integer.highestOneBit(stripes);
+		if (size < stripes) {
+			size <<= 1;
+		}
+		this.locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			this.locks[i] = new ReentrantLock();
+		}
+		this.mask = size - 1;
+	}
+
+	public int size() {
+		return locks.length;
+	}
+
+	public int stripeFor(String accountId) {
+		return hash(accountId) & mask;
+	}
+
+	/**
+	 * non-negative hash of an account id, also used to pick the partition or shard of an account
+	 */
+	static int hash(String accountId) {
+		//spread the bits of String.hashCode so ids that differ only in the last chars do not cluster
+		int h = accountId.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & 0x7FFFFFFF;
+	}
+
+	/**
+	 * lock the stripes of both accounts of a transfer, lower stripe first
+	 *
+	 * @return nanoseconds spent waiting, 0 if both locks were free
+	 */
+	public long lock(int first, int second) {
+		if (first == second) {
+			return lock(first);
+		} else if (first < second) {
+			return lock(first) + lock(second);
+		} else {
+			return lock(second) + lock(first);
+		}
+	}
+
+	/**
+	 * sorts and de-duplicates stripes in place, the first returned count entries are the stripes to lock
+	 */
+	public static int order(int[] stripes) {
+		Arrays.sort(stripes);
+		int count = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			if (count == 0 || stripes[count - 1] != stripes[i]) {
+				stripes[count++] = stripes[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * lock the first count stripes, which must be ordered by {@link #order(int[])}
+	 *
+	 * @return nanoseconds spent waiting, 0 if all locks were free
+	 */
+	public long lockAll(int[] stripes, int count) {
+		long waited = 0;
+		for (int i = 0; i < count; i++) {
+			waited += lock(stripes[i]);
+		}
+		return waited;
+	}
+
+	public void unlockAll(int[] stripes, int count) {
+		for (int i = count - 1; i >= 0; i--) {
+			locks[stripes[i]].unlock();
+		}
+	}
+
+	private long lock(int stripe) {
+		ReentrantLock lock = locks[stripe];
+		if (lock.tryLock()) {
+			return 0;
+		}
+		long started = System.nanoTime();
+		lock.lock();
+		return System.nanoTime() - started;
+	}
+
+	public void unlock(int first, int second) {
+		locks[first].unlock();
+		if (first != second) {
+			locks[second].unlock();
+		}
+	}
+}
@@ -0,0 +1,426 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of account changes with group commit.
+ *
+ * Appends only copy the encoded record into an in-memory buffer. A single writer thread
+ * writes the buffer to the file and forces it to disk once the batch size is reached or the
+ * flush interval is over, so one fsync covers every record appended meanwhile. Callers wait
+ * for their record with {@link #awaitDurable(long)} before they acknowledge anything.
+ *
+ * Every record is written as [payload length][payload][crc32 of payload]. A record is
+ * identified by the file offset right after it, which also serves as its sequence number.
+ */
+@Slf4j
+public class TransactionJournal implements Closeable {
+
+	public static final byte CREATE_ACCOUNT = 1;
+
+	public static final byte TRANSFER = 2;
+
+	public static final byte CLEAR = 3;
+
+	public static final byte MULTI_LEG = 4;
+
+	private static final int RECORD_OVERHEAD = 8;
+
+	// multi-leg records grow with their legs, anything longer is taken for a corrupt length
+	private static final int MAX_RECORD_SIZE = 1 << 24;
+
+	static final int MAX_ID_BYTES = 0xFFFF;
+
+	/**
+	 * receives replayed records, position is the position right after the record just like
+	 * the append methods return it
+	 */
+	public interface Visitor {
+
+		void accountCreated(long position, String accountId, long balance);
+
+		void transferred(long position, String accountFromId, String accountToId, long amount);
+
+		void cleared(long position);
+
+		/**
+		 * fanOut: the single account paid every leg, otherwise every leg paid it
+		 */
+		void multiLegTransferred(long position, String accountId, boolean fanOut, String[] legAccountIds,
+				long[] amounts);
+	}
+
+	private final FileChannel channel;
+
+	private final int batchSize;
+
+	private final long flushIntervalNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition pendingWork = lock.newCondition();
+
+	private final Condition flushed = lock.newCondition();
+
+	private ByteBuffer pending = ByteBuffer.allocate(1 << 20);
+
+	private ByteBuffer writing = ByteBuffer.allocate(1 << 20);
+
+	private int pendingRecords;
+
+	private long firstPendingNanos;
+
+	private volatile long appendedPosition;
+
+	private volatile long durablePosition;
+
+	private volatile IOException failure;
+
+	private volatile boolean running = true;
+
+	private final Thread writer;
+
+	/**
+	 * Opens the journal for appending after the last complete record, a torn record at the end
+	 * of the file (crash during a write) is cut off. All records from the replay position on
+	 * are handed to the visitor first.
+	 */
+	public TransactionJournal(Path path, long replayFrom, Visitor visitor, int batchSize, long flushIntervalMillis)
+			throws IOException {
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		long validLength = Files.exists(path) ? replay(path, replayFrom, visitor) : 0;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (channel.size() > validLength) {
+			log.warn("Cutting off {} bytes of incomplete records at the end of journal {}", channel.size() - validLength, path);
+			channel.truncate(validLength);
+		}
+		channel.position(validLength);
+		this.appendedPosition = validLength;
+		this.durablePosition = validLength;
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.writer = new Thread(this::writeLoop, "journal-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	public long appendAccountCreated(String accountId, long balance) {
+		return append(encodeAccountCreated(accountId, balance));
+	}
+
+	public long appendTransfer(String accountFromId, String accountToId, long amount) {
+		return append(encodeTransfer(accountFromId, accountToId, amount));
+	}
+
+	public long appendCleared() {
+		return append(encodeCleared());
+	}
+
+	public long appendMultiLeg(MultiLegTransaction transaction) {
+		return append(encodeMultiLeg(transaction));
+	}
+
+	static byte[] encodeAccountCreated(String accountId, long balance) {
+		byte[] id = encodeId(accountId);
+		ByteBuffer payload = ByteBuffer.allocate(1 + 2 + id.length + 8);
+		payload.put(CREATE_ACCOUNT).putShort((short) id.length).put(id).putLong(balance);
+		return payload.array();
+	}
+
+	static byte[] encodeTransfer(String accountFromId, String accountToId, long amount) {
+		byte[] from = encodeId(accountFromId);
+		byte[] to = encodeId(accountToId);
+		ByteBuffer payload = ByteBuffer.allocate(1 + 2 + from.length + 2 + to.length + 8);
+		payload.put(TRANSFER).putShort((short) from.length).put(from).putShort((short) to.length).put(to).putLong(amount);
+		return payload.array();
+	}
+
+	/**
+	 * ids are written with an unsigned 16 bit length, a longer one would be read back wrong on replay
+	 */
+	static byte[] encodeId(String accountId) {
+		byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+		if (id.length > MAX_ID_BYTES) {
+			throw new IllegalArgumentException("account id is longer than " + MAX_ID_BYTES + " utf-8 bytes: "
+					+ accountId.substring(0, 32) + "...");
+		}
+		return id;
+	}
+
+	static byte[] encodeCleared() {
+		return new byte[] { CLEAR };
+	}
+
+	static byte[] encodeMultiLeg(MultiLegTransaction transaction) {
+		byte[] id = encodeId(transaction.getAccountId());
+		List<MultiLegTransaction.Leg> legs = transaction.getLegs();
+		byte[][] legIds = new byte[legs.size()][];
+		int length = 1 + 2 + id.length + 1 + 4;
+		for (int i = 0; i < legIds.length; i++) {
+			legIds[i] = encodeId(legs.get(i).getAccountId());
+			length += 2 + legIds[i].length + 8;
+		}
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		payload.put(MULTI_LEG).putShort((short) id.length).put(id).put((byte) (transaction.isFanOut() ? 1 : 0))
+				.putInt(legIds.length);
+		for (int i = 0; i < legIds.length; i++) {
+			payload.putShort((short) legIds[i].length).put(legIds[i]).putLong(legs.get(i).getMinorAmount());
+		}
+		return payload.array();
+	}
+
+	/**
+	 * @return the position right after the record, pass it to {@link #awaitDurable(long)}
+	 */
+	public long append(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		int recordLength = payload.length + RECORD_OVERHEAD;
+		lock.lock();
+		try {
+			if (pending.remaining() < recordLength) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordLength));
+				pending.flip();
+				bigger.put(pending);
+				pending = bigger;
+			}
+			pending.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+			//the writer is woken up by the first record of a batch to start the flush interval, and by a full batch
+			if (pendingRecords++ == 0) {
+				firstPendingNanos = System.nanoTime();
+				pendingWork.signal();
+			} else if (pendingRecords >= batchSize) {
+				pendingWork.signal();
+			}
+			appendedPosition += recordLength;
+			return appendedPosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * position right after the last appended record
+	 */
+	public long position() {
+		return appendedPosition;
+	}
+
+	/**
+	 * blocks until everything up to the given position is forced to disk
+	 */
+	public void awaitDurable(long position) {
+		if (durablePosition >= position) {
+			return;
+		}
+		lock.lock();
+		try {
+			while (durablePosition < position) {
+				if (failure != null) {
+					throw new UncheckedIOException("journal write failed", failure);
+				}
+				if (!running) {
+					throw new IllegalStateException("journal is closed");
+				}
+				flushed.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for journal flush", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		lock.lock();
+		try {
+			pendingWork.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+	private void writeLoop() {
+		while (true) {
+			long target;
+			lock.lock();
+			try {
+				//wait for a full batch or until the oldest pending record is flush interval old,
+				//whoever waits in awaitDurable meanwhile is flushed together with the batch
+				while (running && pendingRecords < batchSize) {
+					if (pendingRecords == 0) {
+						pendingWork.await();
+						continue;
+					}
+					long waitNanos = flushIntervalNanos - (System.nanoTime() - firstPendingNanos);
+					if (waitNanos <= 0) {
+						break;
+					}
+					pendingWork.awaitNanos(waitNanos);
+				}
+				if (!running && pendingRecords == 0) {
+					flushed.signalAll();
+					return;
+				}
+				ByteBuffer full = pending;
+				pending = writing;
+				writing = full;
+				pendingRecords = 0;
+				target = appendedPosition;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				writing.flip();
+				while (writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				writing.clear();
+				channel.force(false);
+			} catch (IOException e) {
+				log.error("Writing journal failed", e);
+				failure = e;
+			}
+
+			lock.lock();
+			try {
+				if (failure == null) {
+					durablePosition = target;
+				}
+				flushed.signalAll();
+				if (failure != null) {
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Reads all complete records from the given position on and hands them to the visitor
+	 * (which may be null to only validate the file).
+	 *
+	 * @return position after the last complete and valid record
+	 */
+	public static long replay(Path path, long fromPosition, Visitor visitor) throws IOException {
+		long position = fromPosition;
+		try (FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			readChannel.position(fromPosition);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(readChannel), 1 << 16));
+			CRC32 crc = new CRC32();
+			while (true) {
+				byte[] payload = readRecord(in, crc);
+				if (payload == null) {
+					return position;
+				}
+				position += payload.length + RECORD_OVERHEAD;
+				if (visitor != null) {
+					dispatch(position, ByteBuffer.wrap(payload), visitor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * writes one record in the journal format, [payload length][payload][crc32 of payload]
+	 */
+	static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * @return the payload of the next record, null at the end of the stream or at a torn or corrupt record
+	 */
+	static byte[] readRecord(DataInputStream in, CRC32 crc) throws IOException {
+		try {
+			int length = in.readInt();
+			if (length <= 0 || length > MAX_RECORD_SIZE) {
+				return null;
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			int checksum = in.readInt();
+			crc.reset();
+			crc.update(payload);
+			return (int) crc.getValue() == checksum ? payload : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	static void dispatch(long position, ByteBuffer payload, Visitor visitor) {
+		byte type = payload.get();
+		switch (type) {
+		case CREATE_ACCOUNT:
+			visitor.accountCreated(position, readString(payload), payload.getLong());
+			break;
+		case TRANSFER:
+			visitor.transferred(position, readString(payload), readString(payload), payload.getLong());
+			break;
+		case CLEAR:
+			visitor.cleared(position);
+			break;
+		case MULTI_LEG:
+			String accountId = readString(payload);
+			boolean fanOut = payload.get() != 0;
+			String[] legAccountIds = new String[payload.getInt()];
+			long[] amounts = new long[legAccountIds.length];
+			for (int i = 0; i < legAccountIds.length; i++) {
+				legAccountIds[i] = readString(payload);
+				amounts[i] = payload.getLong();
+			}
+			visitor.multiLegTransferred(position, accountId, fanOut, legAccountIds, amounts);
+			break;
+		default:
+			throw new IllegalStateException("unknown journal record type " + type + " at position " + position);
+		}
+	}
+
+	private static String readString(ByteBuffer payload) {
+		byte[] bytes = new byte[payload.getShort() & 0xFFFF];
+		payload.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,137 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.LedgerEntry;
+import com.db.awmd.challenge.domain.LedgerPage;
+
+/**
+ * In-memory history of committed transfers, one append-only list per account.
+ *
+ * Entries are stored in fixed size chunks. Appending only writes into the last chunk and
+ * publishes the new size, a new chunk list is only built when a chunk is full, which is also
+ * when the oldest chunks beyond the retention are dropped. Readers never lock, they read the
+ * size first and the chunk list second, so every entry below the size is reachable.
+ * Each entry gets a per account sequence number, which is also the paging cursor.
+ * A retention of 0 turns the history off, nothing is recorded or allocated per transfer then.
+ */
+@Component
+public class TransactionLedger {
+
+	private static final int CHUNK_SIZE = 64;
+
+	private final Map<String, AccountLedger> ledgers = new ConcurrentHashMap<>();
+
+	private final int retainedChunks;
+
+	private final boolean enabled;
+
+	@Autowired
+	public TransactionLedger(@Value("${accounts.ledger.retention:1000}") int retention) {
+		// whole chunks are dropped, so up to one chunk more than the retention is kept
+		this.retainedChunks = Math.max(1, (retention + CHUNK_SIZE - 1) / CHUNK_SIZE) + 1;
+		this.enabled = retention > 0;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * adds an entry to the history of the account, amount is negative for a debit
+	 */
+	public void record(String accountId, String counterpartyAccountId, long minorAmount, long minorBalance,
+			long timestamp) {
+		if (!enabled) {
+			return;
+		}
+		ledgers.computeIfAbsent(accountId, id -> new AccountLedger()).append(counterpartyAccountId, minorAmount,
+				minorBalance, timestamp);
+	}
+
+	/**
+	 * entries older than the cursor (all retained entries if null), newest first
+	 */
+	public LedgerPage page(String accountId, Long cursor, int limit) {
+		AccountLedger ledger = ledgers.get(accountId);
+		if (ledger == null) {
+			return new LedgerPage(new ArrayList<>(), null);
+		}
+		return ledger.page(cursor, limit);
+	}
+
+	public void clear() {
+		ledgers.clear();
+	}
+
+	private static final class Chunks {
+
+		private final long firstSequence;
+
+		private final LedgerEntry[][] chunks;
+
+		private Chunks(long firstSequence, LedgerEntry[][] chunks) {
+			this.firstSequence = firstSequence;
+			this.chunks = chunks;
+		}
+	}
+
+	private final class AccountLedger {
+
+		// transfers touching different shards of a hot account may append at the same time
+		private final ReentrantLock appendLock = new ReentrantLock();
+
+		private volatile Chunks chunks = new Chunks(0, new LedgerEntry[][] { new LedgerEntry[CHUNK_SIZE] });
+
+		private volatile long size;
+
+		private void append(String counterpartyAccountId, long minorAmount, long minorBalance, long timestamp) {
+			appendLock.lock();
+			try {
+				long sequence = size;
+				Chunks current = chunks;
+				int offset = (int) (sequence % CHUNK_SIZE);
+				if (offset == 0 && sequence > 0) {
+					current = grow(current);
+					chunks = current;
+				}
+				current.chunks[current.chunks.length - 1][offset] = new LedgerEntry(sequence, counterpartyAccountId,
+						minorAmount, minorBalance, timestamp);
+				// the volatile write publishes the entry and the chunk list to readers
+				size = sequence + 1;
+			} finally {
+				appendLock.unlock();
+			}
+		}
+
+		private Chunks grow(Chunks current) {
+			int dropped = Math.max(0, current.chunks.length + 1 - retainedChunks);
+			LedgerEntry[][] grown = new LedgerEntry[current.chunks.length - dropped + 1][];
+			System.arraycopy(current.chunks, dropped, grown, 0, current.chunks.length - dropped);
+			grown[grown.length - 1] = new LedgerEntry[CHUNK_SIZE];
+			return new Chunks(current.firstSequence + (long) dropped * CHUNK_SIZE, grown);
+		}
+
+		private LedgerPage page(Long cursor, int limit) {
+			long end = size;
+			Chunks current = chunks;
+			long from = cursor == null ? end : Math.min(cursor, end);
+			List<LedgerEntry> entries = new ArrayList<>(Math.min(limit, CHUNK_SIZE));
+			long sequence = from - 1;
+			for (; sequence >= current.firstSequence && entries.size() < limit; sequence--) {
+				long index = sequence - current.firstSequence;
+				entries.add(current.chunks[(int) (index / CHUNK_SIZE)][(int) (index % CHUNK_SIZE)]);
+			}
+			Long nextCursor = sequence >= current.firstSequence ? sequence + 1 : null;
+			return new LedgerPage(entries, nextCursor);
+		}
+	}
+}
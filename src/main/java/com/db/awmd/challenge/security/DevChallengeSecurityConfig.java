@@ -44,7 +44,9 @@ public class DevChallengeSecurityConfig extends WebSecurityConfigurerAdapter {
 		 .hasRole("REST_API_ACCESS")
 		 .antMatchers("/v1/accounts")
 		 .hasRole("REST_API_ACCESS")
-		 .antMatchers("/v1/accounts/*")
+		 .antMatchers("/v1/accounts/**")
+		 .hasRole("REST_API_ACCESS")
+		 .antMatchers("/v1/async/accounts/**")
 		 .hasRole("REST_API_ACCESS")
 		 .antMatchers("/actuator/*")
 		 .hasRole("ACTADMIN")
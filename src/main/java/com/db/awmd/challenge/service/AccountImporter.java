@@ -0,0 +1,204 @@
+package com.db.awmd.challenge.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ImportResult;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates accounts in bulk from a CSV (accountId,balance) or newline delimited json stream.
+ *
+ * The stream is read line by line and cut into chunks, chunks are parsed, validated and
+ * created in parallel. At most a fixed number of chunks is in flight, reading waits for a
+ * free slot, so memory use does not depend on the size of the file. An account id that
+ * exists already is counted as duplicate and keeps its balance, exactly like a single
+ * createAccount that fails with a DuplicateAccountIdException.
+ */
+@Service
+@Slf4j
+public class AccountImporter {
+
+	public enum Format {
+		CSV, NDJSON;
+
+		public static Format forFile(Path file) {
+			return file.getFileName().toString().toLowerCase().endsWith(".csv") ? CSV : NDJSON;
+		}
+	}
+
+	private static final int MAX_ERRORS = 100;
+
+	private final AccountsRepository accountsRepository;
+
+	private final Validator validator;
+
+	private final ObjectReader accountReader;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	private final int chunkSize;
+
+	@Autowired
+	public AccountImporter(AccountsRepository accountsRepository, Validator validator, ObjectMapper objectMapper,
+			@Value("${accounts.import.parallelism:0}") int parallelism,
+			@Value("${accounts.import.chunk-size:10000}") int chunkSize) {
+		this.accountsRepository = accountsRepository;
+		this.validator = validator;
+		this.accountReader = objectMapper.readerFor(Account.class);
+		this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		this.chunkSize = chunkSize;
+		this.executor = Executors.newFixedThreadPool(this.parallelism);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public ImportResult importAccounts(InputStream input, Format format) throws IOException {
+		Progress progress = new Progress();
+		// two chunks per thread keep every thread busy while the next chunk is read
+		Semaphore inFlight = new Semaphore(parallelism * 2);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+		try {
+			List<String> chunk = new ArrayList<>(chunkSize);
+			long firstLine = 1;
+			long lineNumber = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				chunk.add(line);
+				if (chunk.size() == chunkSize) {
+					submit(chunk, firstLine, format, progress, inFlight);
+					chunk = new ArrayList<>(chunkSize);
+					firstLine = lineNumber + 1;
+				}
+			}
+			if (!chunk.isEmpty()) {
+				submit(chunk, firstLine, format, progress, inFlight);
+			}
+			// all permits back means all chunks are done
+			inFlight.acquire(parallelism * 2);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while importing accounts", e);
+		}
+		return progress.result();
+	}
+
+	private void submit(List<String> lines, long firstLine, Format format, Progress progress, Semaphore inFlight)
+			throws InterruptedException {
+		inFlight.acquire();
+		try {
+			executor.execute(() -> {
+				try {
+					importChunk(lines, firstLine, format, progress);
+				} catch (RuntimeException e) {
+					progress.reject(firstLine, "chunk failed: " + e.getMessage(), lines.size());
+				} finally {
+					inFlight.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	private void importChunk(List<String> lines, long firstLine, Format format, Progress progress) {
+		List<Account> accounts = new ArrayList<>(lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			long lineNumber = firstLine + i;
+			if (line.isEmpty() || (format == Format.CSV && lineNumber == 1 && line.startsWith("accountId"))) {
+				continue;
+			}
+			try {
+				Account account = format == Format.CSV ? parseCsv(line) : accountReader.readValue(line);
+				String violation = validate(account);
+				if (violation != null) {
+					progress.reject(lineNumber, violation, 1);
+				} else {
+					accounts.add(account);
+				}
+			} catch (IOException | RuntimeException e) {
+				progress.reject(lineNumber, e.getMessage(), 1);
+			}
+		}
+		List<Account> duplicates = accountsRepository.createAccounts(accounts);
+		progress.created.addAndGet(accounts.size() - duplicates.size());
+		progress.duplicates.addAndGet(duplicates.size());
+	}
+
+	private static Account parseCsv(String line) {
+		int comma = line.indexOf(',');
+		if (comma < 0) {
+			throw new IllegalArgumentException("expected accountId,balance but was " + line);
+		}
+		return new Account(line.substring(0, comma).trim(), new BigDecimal(line.substring(comma + 1).trim()));
+	}
+
+	private String validate(Account account) {
+		Set<ConstraintViolation<Account>> violations = validator.validate(account);
+		return violations.isEmpty() ? null : violations.iterator().next().getMessage();
+	}
+
+	private static final class Progress {
+
+		private final AtomicLong created = new AtomicLong();
+
+		private final AtomicLong duplicates = new AtomicLong();
+
+		private final AtomicLong invalid = new AtomicLong();
+
+		// the errors of the lowest line numbers, chunks finish in any order
+		private final TreeMap<Long, String> errors = new TreeMap<>();
+
+		private void reject(long lineNumber, String message, int lines) {
+			invalid.addAndGet(lines);
+			synchronized (errors) {
+				if (errors.size() < MAX_ERRORS || lineNumber < errors.lastKey()) {
+					errors.putIfAbsent(lineNumber, "line " + lineNumber + ": " + message);
+					if (errors.size() > MAX_ERRORS) {
+						errors.pollLastEntry();
+					}
+				}
+			}
+		}
+
+		private ImportResult result() {
+			synchronized (errors) {
+				return new ImportResult(created.get(), duplicates.get(), invalid.get(), new ArrayList<>(errors.values()));
+			}
+		}
+	}
+}
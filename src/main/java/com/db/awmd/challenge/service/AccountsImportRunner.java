@@ -0,0 +1,53 @@
+package com.db.awmd.challenge.service;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.db.awmd.challenge.domain.ImportResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * imports the accounts of accounts.import.file once the application has started, nothing happens when it is not set
+ */
+@Component
+@Slf4j
+public class AccountsImportRunner implements ApplicationRunner {
+
+	private final AccountImporter accountImporter;
+
+	private final String file;
+
+	@Autowired
+	public AccountsImportRunner(AccountImporter accountImporter, @Value("${accounts.import.file:}") String file) {
+		this.accountImporter = accountImporter;
+		this.file = file;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if (!StringUtils.hasText(file)) {
+			return;
+		}
+		Path path = Paths.get(file);
+		long started = System.currentTimeMillis();
+		ImportResult result;
+		try (InputStream input = Files.newInputStream(path)) {
+			result = accountImporter.importAccounts(input, AccountImporter.Format.forFile(path));
+		}
+		log.info("Imported accounts from {} in {} ms: {} created, {} duplicates, {} invalid", path,
+				System.currentTimeMillis() - started, result.getCreated(), result.getDuplicates(), result.getInvalid());
+		for (String error : result.getErrors()) {
+			log.warn("Account import {}", error);
+		}
+	}
+}
@@ -1,11 +1,41 @@
 package com.db.awmd.challenge.service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.LedgerPage;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.TransactionResult;
 import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.TransactionLedger;
 
 import lombok.Getter;
 
@@ -15,9 +45,38 @@ public class AccountsService {
 	@Getter
 	private final AccountsRepository accountsRepository;
 
+	private final Validator validator;
+
+	private final ExecutorService batchExecutor;
+
+	private final TransactionLedger transactionLedger;
+
+	private final ExecutorService asyncExecutor;
+
+	private final int maxLegs;
+
 	@Autowired
-	public AccountsService(AccountsRepository accountsRepository) {
+	public AccountsService(AccountsRepository accountsRepository, Validator validator,
+			@Value("${accounts.batch.parallelism:0}") int batchParallelism, TransactionLedger transactionLedger,
+			@Value("${accounts.async.parallelism:0}") int asyncParallelism,
+			@Value("${accounts.async.queue-capacity:10000}") int asyncQueueCapacity,
+			@Value("${accounts.multi-leg.max-legs:1000}") int maxLegs) {
 		this.accountsRepository = accountsRepository;
+		this.transactionLedger = transactionLedger;
+		this.validator = validator;
+		this.maxLegs = maxLegs;
+		this.batchExecutor = Executors.newFixedThreadPool(
+				batchParallelism > 0 ? batchParallelism : Runtime.getRuntime().availableProcessors());
+		int asyncThreads = asyncParallelism > 0 ? asyncParallelism : Runtime.getRuntime().availableProcessors();
+		// bounded, a full queue rejects the request instead of piling up work
+		this.asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(asyncQueueCapacity));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		batchExecutor.shutdown();
+		asyncExecutor.shutdown();
 	}
 
 	public void createAccount(Account account) {
@@ -28,7 +87,175 @@ public class AccountsService {
 		return this.accountsRepository.getAccount(accountId);
 	}
 
+	/**
+	 * creates the account on the async executor, the caller thread never waits for a lock, fails
+	 * with RejectedExecutionException if the executor queue is full
+	 */
+	public CompletableFuture<Void> createAccountAsync(Account account) {
+		try {
+			return CompletableFuture.runAsync(() -> createAccount(account), asyncExecutor);
+		} catch (RejectedExecutionException e) {
+			return failed(e);
+		}
+	}
+
+	public boolean supportsExport() {
+		return this.accountsRepository.supportsExport();
+	}
+
+	/**
+	 * hands every balance as of one instant to the visitor, see {@link AccountsRepository#exportAccounts}
+	 */
+	public long exportAccounts(AccountsRepository.BalanceVisitor visitor) throws IOException {
+		return this.accountsRepository.exportAccounts(visitor);
+	}
+
+	/**
+	 * page of the transfer history of an account, newest first
+	 */
+	public LedgerPage getTransactions(String accountId, Long cursor, int limit) {
+		if (this.accountsRepository.getAccount(accountId) == null) {
+			throw new AccountNotExistException("account does not exist! account id = " + accountId);
+		}
+		return this.transactionLedger.page(accountId, cursor, limit);
+	}
+
 	public void performTransaction(UserTransaction userTransaction) {
 		this.accountsRepository.performTransaction(userTransaction);
 	}
+
+	/**
+	 * applies all legs of the transfer or none, the accounts are locked once for all legs
+	 */
+	public void performMultiLegTransaction(MultiLegTransaction transaction) {
+		if (transaction.getLegs().size() > maxLegs) {
+			throw new IllegalArgumentException("a multi-leg transfer has at most " + maxLegs + " legs, was "
+					+ transaction.getLegs().size());
+		}
+		this.accountsRepository.performMultiLegTransaction(transaction);
+	}
+
+	/**
+	 * performs the transfer off the caller thread, lock waits and notification dispatch happen on the async executor
+	 */
+	public CompletableFuture<Void> performTransactionAsync(UserTransaction userTransaction) {
+		try {
+			return this.accountsRepository.performTransactionAsync(userTransaction, asyncExecutor);
+		} catch (RejectedExecutionException e) {
+			return failed(e);
+		}
+	}
+
+	/**
+	 * Performs all transfers of a batch and reports an outcome per transfer, in request order.
+	 *
+	 * Transfers are grouped so that two transfers sharing an account (directly or through other
+	 * transfers of the batch) end up in the same group. Groups are applied in parallel, the
+	 * transfers inside a group one after the other in request order.
+	 */
+	public List<TransactionResult> performTransactions(List<UserTransaction> userTransactions) {
+		TransactionResult[] results = new TransactionResult[userTransactions.size()];
+		List<List<Integer>> groups = groupByAccounts(userTransactions, results);
+
+		if (groups.size() == 1) {
+			applyGroup(userTransactions, groups.get(0), results);
+		} else if (!groups.isEmpty()) {
+			List<Future<?>> futures = new ArrayList<>(groups.size());
+			for (List<Integer> group : groups) {
+				futures.add(batchExecutor.submit(() -> applyGroup(userTransactions, group, results)));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("interrupted while waiting for batch transfers", e);
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("batch transfer failed", e.getCause());
+				}
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	private void applyGroup(List<UserTransaction> userTransactions, List<Integer> group, TransactionResult[] results) {
+		for (int index : group) {
+			results[index] = apply(index, userTransactions.get(index));
+		}
+	}
+
+	private TransactionResult apply(int index, UserTransaction userTransaction) {
+		try {
+			this.accountsRepository.performTransaction(userTransaction);
+			return new TransactionResult(index, HttpStatus.OK.value(), null);
+		} catch (AccountNotExistException | BalanceNotSufficientException e) {
+			return new TransactionResult(index, HttpStatus.BAD_REQUEST.value(), e.getMessage());
+		} catch (RuntimeException e) {
+			return new TransactionResult(index, HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+		}
+	}
+
+	/**
+	 * union-find over the account ids of all valid transfers, invalid ones get their result right away
+	 */
+	private List<List<Integer>> groupByAccounts(List<UserTransaction> userTransactions, TransactionResult[] results) {
+		Map<String, Integer> accountIndex = new HashMap<>();
+		int[] parent = new int[userTransactions.size() * 2];
+		int[] transactionAccount = new int[userTransactions.size()];
+
+		for (int i = 0; i < userTransactions.size(); i++) {
+			UserTransaction userTransaction = userTransactions.get(i);
+			String violation = validate(userTransaction);
+			if (violation != null) {
+				results[i] = new TransactionResult(i, HttpStatus.BAD_REQUEST.value(), violation);
+				transactionAccount[i] = -1;
+				continue;
+			}
+			int from = indexOf(accountIndex, parent, userTransaction.getAccountFromId());
+			int to = indexOf(accountIndex, parent, userTransaction.getAccountToId());
+			parent[find(parent, from)] = find(parent, to);
+			transactionAccount[i] = from;
+		}
+
+		Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < userTransactions.size(); i++) {
+			if (transactionAccount[i] >= 0) {
+				groups.computeIfAbsent(find(parent, transactionAccount[i]), root -> new ArrayList<>()).add(i);
+			}
+		}
+		return new ArrayList<>(groups.values());
+	}
+
+	private String validate(UserTransaction userTransaction) {
+		if (userTransaction == null) {
+			return "transaction must not be null";
+		}
+		Set<ConstraintViolation<UserTransaction>> violations = validator.validate(userTransaction);
+		if (violations.isEmpty()) {
+			return null;
+		}
+		return violations.iterator().next().getMessage();
+	}
+
+	private static CompletableFuture<Void> failed(Throwable failure) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		future.completeExceptionally(failure);
+		return future;
+	}
+
+	private static int indexOf(Map<String, Integer> accountIndex, int[] parent, String accountId) {
+		return accountIndex.computeIfAbsent(accountId, id -> {
+			int index = accountIndex.size();
+			parent[index] = index;
+			return index;
+		});
+	}
+
+	private static int find(int[] parent, int index) {
+		while (parent[index] != index) {
+			parent[index] = parent[parent[index]];
+			index = parent[index];
+		}
+		return index;
+	}
 }
@@ -0,0 +1,335 @@
+package com.db.awmd.challenge.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.StripedLocks;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Deferred bilateral settlement of transfers between the same account pairs.
+ *
+ * A netted transfer is only recorded: its amount is added to the obligation of its account
+ * pair, kept as LongAdders so concurrent transfers of a busy pair do not contend. Obligations
+ * are spread over read-write lock stripes, recording holds the read lock of its stripe, the
+ * settlement takes the write lock just long enough to take the sums and drop the obligation.
+ * Every netting.settle-interval-ms, or as soon as netting.settle-threshold transfers were
+ * recorded, each pair is settled through the repository with a single transfer of its net
+ * amount, or none at all if the pair is even. Only pairs are netted, chains and cycles over
+ * more than two accounts are settled pair by pair.
+ *
+ * A transfer is only accepted if the payer can cover it on top of everything it still owes
+ * in unsettled transfers, counted gross. Direct transfers may still drain the payer before
+ * the settlement, the net transfer is then refused like any other and the obligation is kept
+ * for the next settlement.
+ *
+ * Recorded transfers only live in memory until they are settled. In journal mode, where every
+ * other acknowledged change survives a crash, netted transfers are refused instead.
+ */
+@Service
+@Slf4j
+public class NettingEngine implements PublicMetrics {
+
+	private final AccountsRepository accountsRepository;
+
+	private final boolean enabled;
+
+	private final String disabledReason;
+
+	private final long settleIntervalMillis;
+
+	private final long settleThreshold;
+
+	private final Map<String, Obligation> obligations = new ConcurrentHashMap<>();
+
+	private final ReentrantReadWriteLock[] obligationLocks;
+
+	// serializes the balance check and the recording of transfers with the same payer
+	private final StripedLocks payerLocks;
+
+	// gross amount each account owes in recorded but unsettled transfers
+	private final Map<String, LongAdder> pendingDebits = new ConcurrentHashMap<>();
+
+	private final AtomicLong recordedSinceSettlement = new AtomicLong();
+
+	// one settlement at a time
+	private final ReentrantLock settleLock = new ReentrantLock();
+
+	private final ReentrantLock wakeLock = new ReentrantLock();
+
+	private final Condition settleRequested = wakeLock.newCondition();
+
+	private final LongAdder recorded = new LongAdder();
+
+	private final LongAdder settledTransfers = new LongAdder();
+
+	private final LongAdder settledEven = new LongAdder();
+
+	private final LongAdder settlementFailures = new LongAdder();
+
+	private volatile boolean running;
+
+	private Thread settler;
+
+	@Autowired
+	public NettingEngine(AccountsRepository accountsRepository, @Value("${netting.enabled:false}") boolean enabled,
+			@Value("${netting.settle-interval-ms:1000}") long settleIntervalMillis,
+			@Value("${netting.settle-threshold:100000}") long settleThreshold,
+			@Value("${netting.lock-stripes:64}") int lockStripes,
+			@Value("${accounts.repository.mode:memory}") String repositoryMode) {
+		this.accountsRepository = accountsRepository;
+		if (enabled && "journal".equals(repositoryMode)) {
+			log.warn("Netting is enabled but not offered in journal mode, recorded transfers would be lost on a crash");
+			this.enabled = false;
+			this.disabledReason = "netted transfers are not journaled and not offered in journal mode";
+		} else {
+			this.enabled = enabled;
+			this.disabledReason = "netted transfers are disabled, see netting.enabled";
+		}
+		this.settleIntervalMillis = settleIntervalMillis;
+		this.settleThreshold = settleThreshold;
+		this.payerLocks = new StripedLocks(lockStripes);
+		this.obligationLocks = new ReentrantReadWriteLock[payerLocks.size()];
+		for (int i = 0; i < obligationLocks.length; i++) {
+			obligationLocks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		running = true;
+		settler = new Thread(this::settleLoop, "netting-settler");
+		settler.setDaemon(true);
+		settler.start();
+	}
+
+	/**
+	 * stops the settler and settles whatever is still recorded
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (settler == null) {
+			return;
+		}
+		running = false;
+		settler.interrupt();
+		settler.join(TimeUnit.SECONDS.toMillis(5));
+		settle();
+	}
+
+	/**
+	 * records the transfer for the next settlement, the balances do not change yet
+	 */
+	public void record(UserTransaction userTransaction) throws AccountNotExistException, BalanceNotSufficientException {
+		if (!enabled) {
+			throw new UnsupportedOperationException(disabledReason);
+		}
+		String payer = userTransaction.getAccountFromId();
+		String payee = userTransaction.getAccountToId();
+		long amount = userTransaction.getMinorAmount();
+		if (accountsRepository.getAccount(payee) == null) {
+			throw new AccountNotExistException("account does not exist! account id = "+payee);
+		}
+		int stripe = payerLocks.stripeFor(payer);
+		payerLocks.lock(stripe, stripe);
+		try {
+			Account account = accountsRepository.getAccount(payer);
+			if (account == null) {
+				throw new AccountNotExistException("account does not exist! account id = "+payer);
+			}
+			LongAdder pending = pendingDebits.computeIfAbsent(payer, id -> new LongAdder());
+			if (account.getMinorBalance() - pending.sum() < amount) {
+				throw new BalanceNotSufficientException("balance is not sufficient in account id = "+payer);
+			}
+			if (payer.equals(payee)) {
+				return;
+			}
+			pending.add(amount);
+			add(payer, payee, amount);
+		} finally {
+			payerLocks.unlock(stripe, stripe);
+		}
+		recorded.increment();
+		if (recordedSinceSettlement.incrementAndGet() == settleThreshold) {
+			wakeLock.lock();
+			try {
+				settleRequested.signal();
+			} finally {
+				wakeLock.unlock();
+			}
+		}
+	}
+
+	private void add(String payer, String payee, long amount) {
+		boolean payerFirst = payer.compareTo(payee) < 0;
+		String key = payerFirst ? payer + '\n' + payee : payee + '\n' + payer;
+		ReentrantReadWriteLock.ReadLock lock = lockFor(key).readLock();
+		lock.lock();
+		try {
+			Obligation obligation = obligations.computeIfAbsent(key,
+					k -> payerFirst ? new Obligation(k, payer, payee) : new Obligation(k, payee, payer));
+			(payerFirst ? obligation.firstPaid : obligation.secondPaid).add(amount);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * settles every recorded pair with at most one transfer
+	 *
+	 * @return number of balance changing transfers performed
+	 */
+	public long settle() {
+		settleLock.lock();
+		try {
+			recordedSinceSettlement.set(0);
+			long transfers = 0;
+			// an obligation kept for the next settlement is added again, it must not be visited twice
+			for (Obligation obligation : new ArrayList<>(obligations.values())) {
+				long firstPaid;
+				long secondPaid;
+				ReentrantReadWriteLock.WriteLock lock = lockFor(obligation.key).writeLock();
+				lock.lock();
+				try {
+					// no transfer is between looking up the obligation and adding to it while the write lock is held
+					firstPaid = obligation.firstPaid.sum();
+					secondPaid = obligation.secondPaid.sum();
+					obligations.remove(obligation.key);
+				} finally {
+					lock.unlock();
+				}
+				if (settle(obligation, firstPaid, secondPaid)) {
+					transfers++;
+				}
+			}
+			return transfers;
+		} finally {
+			settleLock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if the balances changed
+	 */
+	private boolean settle(Obligation obligation, long firstPaid, long secondPaid) {
+		// positive means the first account of the pair owes the second
+		long net = firstPaid - secondPaid;
+		boolean transferred = false;
+		if (net != 0) {
+			UserTransaction settlement = net > 0
+					? new UserTransaction(obligation.first, obligation.second, Money.toDecimal(net))
+					: new UserTransaction(obligation.second, obligation.first, Money.toDecimal(-net));
+			try {
+				accountsRepository.performTransaction(settlement);
+				settledTransfers.increment();
+				transferred = true;
+			} catch (BalanceNotSufficientException e) {
+				// kept as it is, the payer may be funded by the next settlement
+				settlementFailures.increment();
+				log.warn("Settling {} failed, retrying with the next settlement: {}", settlement, e.getMessage());
+				add(obligation.first, obligation.second, firstPaid);
+				add(obligation.second, obligation.first, secondPaid);
+				return false;
+			} catch (RuntimeException e) {
+				// an account that is gone cannot settle anymore
+				settlementFailures.increment();
+				log.error("Settling {} failed, dropping the obligation", settlement, e);
+			}
+		} else {
+			settledEven.increment();
+		}
+		// only released once the balances changed, the check in record never sees money twice
+		pendingDebits.computeIfAbsent(obligation.first, id -> new LongAdder()).add(-firstPaid);
+		pendingDebits.computeIfAbsent(obligation.second, id -> new LongAdder()).add(-secondPaid);
+		return transferred;
+	}
+
+	private void settleLoop() {
+		while (running) {
+			wakeLock.lock();
+			try {
+				if (recordedSinceSettlement.get() < settleThreshold) {
+					settleRequested.await(settleIntervalMillis, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				wakeLock.unlock();
+			}
+			try {
+				long started = System.currentTimeMillis();
+				long transfers = settle();
+				if (transfers > 0) {
+					log.debug("Settled with {} transfers in {} ms", transfers, System.currentTimeMillis() - started);
+				}
+			} catch (RuntimeException e) {
+				log.error("Settlement failed", e);
+			}
+		}
+	}
+
+	private ReentrantReadWriteLock lockFor(String key) {
+		return obligationLocks[payerLocks.stripeFor(key)];
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("netting.recorded", recorded.sum()));
+		metrics.add(new Metric<>("netting.pending-pairs", obligations.size()));
+		metrics.add(new Metric<>("netting.settled.transfers", settledTransfers.sum()));
+		metrics.add(new Metric<>("netting.settled.even", settledEven.sum()));
+		metrics.add(new Metric<>("netting.settled.failed", settlementFailures.sum()));
+		return metrics;
+	}
+
+	/**
+	 * what two accounts owe each other, first is the lower account id
+	 */
+	private static final class Obligation {
+
+		final String key;
+
+		final String first;
+
+		final String second;
+
+		final LongAdder firstPaid = new LongAdder();
+
+		final LongAdder secondPaid = new LongAdder();
+
+		Obligation(String key, String first, String second) {
+			this.key = key;
+			this.first = first;
+			this.second = second;
+		}
+	}
+}
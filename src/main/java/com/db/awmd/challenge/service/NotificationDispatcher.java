@@ -0,0 +1,247 @@
+package com.db.awmd.challenge.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.domain.Account;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decouples transfers from the notification service.
+ *
+ * Transfers only publish an event into a bounded queue once they have committed, a single
+ * dispatcher thread drains the queue in batches and hands the events to the
+ * {@link NotificationService}. What happens when the queue is full is decided by the
+ * configured {@link OverflowPolicy}.
+ *
+ * With virtual-threads.enabled on Java 21 the dispatcher is a virtual thread and every
+ * notification of a batch is delivered on its own virtual thread, a notification service
+ * blocked on I/O then holds no platform thread and a batch takes as long as its slowest
+ * delivery. The next batch starts once the previous one is delivered, notifications of the
+ * same account within a batch may arrive in any order.
+ */
+@Service
+@Slf4j
+public class NotificationDispatcher {
+
+	public enum OverflowPolicy {
+		/** discard the event, the transfer never waits */
+		DROP,
+		/** wait for free space in the queue, the notifier throttles the transfers */
+		BLOCK,
+		/**
+		 * move the event to an overflow queue, delivered once the bounded queue is drained. The
+		 * overflow queue is unbounded and lives on the heap, so with this policy the queue
+		 * capacity no longer bounds the memory held by undelivered notifications.
+		 */
+		SPILL
+	}
+
+	private static final long DROP_REPORT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	private final NotificationService notificationService;
+
+	private final BlockingQueue<TransferNotification> queue;
+
+	private final Queue<TransferNotification> spill = new ConcurrentLinkedQueue<>();
+
+	private final int batchSize;
+
+	private final OverflowPolicy overflowPolicy;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong spilled = new AtomicLong();
+
+	// drops are only counted on the transfer thread, the dispatcher thread logs a summary
+	private long reportedDrops;
+
+	private long nextDropReport;
+
+	private final boolean virtualThreads;
+
+	private volatile boolean running;
+
+	private Thread dispatcher;
+
+	// one virtual thread per delivery, null on platform threads
+	private ExecutorService deliveries;
+
+	@Autowired
+	public NotificationDispatcher(NotificationService notificationService,
+			@Value("${notification.queue.capacity:65536}") int capacity,
+			@Value("${notification.batch.size:256}") int batchSize,
+			@Value("${notification.overflow-policy:BLOCK}") OverflowPolicy overflowPolicy,
+			@Value("${virtual-threads.enabled:false}") boolean virtualThreads) {
+		this.notificationService = notificationService;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.batchSize = batchSize;
+		this.overflowPolicy = overflowPolicy;
+		this.virtualThreads = virtualThreads;
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		if (virtualThreads && VirtualThreads.isSupported()) {
+			deliveries = VirtualThreads.newPerTaskExecutor("notification-");
+			dispatcher = VirtualThreads.factory("notification-dispatcher-").newThread(this::dispatch);
+		} else {
+			if (virtualThreads) {
+				log.warn("Virtual threads need Java 21, delivering notifications on a platform thread");
+			}
+			dispatcher = new Thread(this::dispatch, "notification-dispatcher");
+			dispatcher.setDaemon(true);
+		}
+		dispatcher.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+		if (deliveries != null) {
+			deliveries.shutdown();
+		}
+	}
+
+	/**
+	 * queue a notification, never calls the notification service on the caller thread
+	 */
+	public void publish(Account account, String transferDescription) {
+		TransferNotification notification = new TransferNotification(account, transferDescription);
+		if (queue.offer(notification)) {
+			return;
+		}
+		switch (overflowPolicy) {
+		case BLOCK:
+			try {
+				queue.put(notification);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				dropped.incrementAndGet();
+			}
+			break;
+		case SPILL:
+			spill.add(notification);
+			spilled.incrementAndGet();
+			break;
+		default:
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * number of notifications waiting for delivery, including spilled ones
+	 */
+	public int getQueueDepth() {
+		return queue.size() + spill.size();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getSpilledCount() {
+		return spilled.get();
+	}
+
+	private void dispatch() {
+		List<TransferNotification> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty() || !spill.isEmpty()) {
+			try {
+				TransferNotification first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+			// spilled events are only picked up when the bounded queue has room to spare in this batch
+			TransferNotification spilledNotification;
+			while (batch.size() < batchSize && (spilledNotification = spill.poll()) != null) {
+				batch.add(spilledNotification);
+			}
+			deliver(batch);
+			batch.clear();
+			reportDrops();
+		}
+	}
+
+	private void reportDrops() {
+		long now = System.currentTimeMillis();
+		if (now < nextDropReport) {
+			return;
+		}
+		long drops = dropped.get();
+		if (drops > reportedDrops) {
+			log.warn("Notification queue is full, dropped {} notifications since the last report, {} in total",
+					drops - reportedDrops, drops);
+			reportedDrops = drops;
+			nextDropReport = now + DROP_REPORT_MILLIS;
+		}
+	}
+
+	private void deliver(List<TransferNotification> batch) {
+		if (deliveries == null) {
+			for (TransferNotification notification : batch) {
+				deliver(notification);
+			}
+			return;
+		}
+		List<Future<?>> delivered = new ArrayList<>(batch.size());
+		for (TransferNotification notification : batch) {
+			delivered.add(deliveries.submit(() -> deliver(notification)));
+		}
+		for (Future<?> future : delivered) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				// the rest of the batch is still delivered, the loop ends after it
+				Thread.currentThread().interrupt();
+				running = false;
+			} catch (ExecutionException e) {
+				log.error("Notification delivery failed", e.getCause());
+			}
+		}
+	}
+
+	private void deliver(TransferNotification notification) {
+		try {
+			notificationService.notifyAboutTransfer(notification.account, notification.description);
+		} catch (RuntimeException e) {
+			log.error("Notification for account {} failed", notification.account.getAccountId(), e);
+		}
+	}
+
+	private static final class TransferNotification {
+
+		private final Account account;
+
+		private final String description;
+
+		private TransferNotification(Account account, String description) {
+			this.account = account;
+			this.description = description;
+		}
+	}
+}
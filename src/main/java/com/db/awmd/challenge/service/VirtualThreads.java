@@ -0,0 +1,84 @@
+package com.db.awmd.challenge.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (Java 21) without compiling against Java 21.
+ *
+ * The service is built for Java 8, the virtual thread api is looked up once by reflection
+ * and only used when the runtime has it. Callers check {@link #isSupported()} and keep
+ * their platform threads otherwise, so the same jar runs on both and switching is a
+ * matter of the runtime and virtual-threads.enabled.
+ */
+public final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL = lookup(Thread.class, "ofVirtual");
+
+	private static final Method NAME = lookup("java.lang.Thread$Builder", "name", String.class, long.class);
+
+	private static final Method FACTORY = lookup("java.lang.Thread$Builder", "factory");
+
+	private static final Method PER_TASK_EXECUTOR = lookup(Executors.class, "newThreadPerTaskExecutor",
+			ThreadFactory.class);
+
+	private VirtualThreads() {
+	}
+
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null && NAME != null && FACTORY != null && PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * factory for virtual threads named prefix0, prefix1, ...
+	 *
+	 * @throws UnsupportedOperationException if the runtime has no virtual threads
+	 */
+	public static ThreadFactory factory(String prefix) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("virtual threads need Java 21 or later, running on "
+					+ System.getProperty("java.version"));
+		}
+		Object builder = invoke(OF_VIRTUAL, null);
+		return (ThreadFactory) invoke(FACTORY, invoke(NAME, builder, prefix, 0L));
+	}
+
+	/**
+	 * executor that starts a new virtual thread for every task
+	 *
+	 * @throws UnsupportedOperationException if the runtime has no virtual threads
+	 */
+	public static ExecutorService newPerTaskExecutor(String prefix) {
+		return (ExecutorService) invoke(PER_TASK_EXECUTOR, null, factory(prefix));
+	}
+
+	private static Method lookup(String className, String name, Class<?>... parameterTypes) {
+		try {
+			return lookup(Class.forName(className), name, parameterTypes);
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static Method lookup(Class<?> type, String name, Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object... args) {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
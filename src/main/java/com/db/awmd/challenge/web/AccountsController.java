@@ -1,5 +1,11 @@
 package com.db.awmd.challenge.web;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,15 +16,29 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ImportResult;
+import com.db.awmd.challenge.domain.LedgerPage;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.TransactionResult;
 import com.db.awmd.challenge.domain.UserTransaction;
 import com.db.awmd.challenge.exception.AccountNotExistException;
 import com.db.awmd.challenge.exception.BalanceNotSufficientException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.service.AccountImporter;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NettingEngine;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -32,15 +52,39 @@ import lombok.extern.slf4j.Slf4j;
 @Api(value = "account-api")
 public class AccountsController {
 
+	public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+	public static final String TEXT_CSV_VALUE = "text/csv";
+
 	private final AccountsService accountsService;
 
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+	private static final int DEFAULT_PAGE_SIZE = 50;
+
+	private static final int MAX_PAGE_SIZE = 500;
+
+	private final ObjectMapper objectMapper;
+
+	private final IdempotencyCache idempotencyCache;
+
+	private final AccountImporter accountImporter;
+
+	private final NettingEngine nettingEngine;
+
 	@Autowired
-	public AccountsController(AccountsService accountsService) {
+	public AccountsController(AccountsService accountsService, ObjectMapper objectMapper,
+			IdempotencyCache idempotencyCache, AccountImporter accountImporter, NettingEngine nettingEngine) {
 		this.accountsService = accountsService;
+		this.objectMapper = objectMapper;
+		this.idempotencyCache = idempotencyCache;
+		this.accountImporter = accountImporter;
+		this.nettingEngine = nettingEngine;
 	}
 
 	@ApiOperation(value = "Create a new account in case the account id does not exist already", response = ResponseEntity.class)
-	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+	@PostMapping(consumes = { MediaType.APPLICATION_JSON_VALUE,
+			SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
 	public ResponseEntity<Object> createAccount(@RequestBody @Valid Account account) {
 		log.info("Creating account {}", account);
 
@@ -53,6 +97,47 @@ public class AccountsController {
 		return new ResponseEntity<>(HttpStatus.CREATED);
 	}
 
+	@ApiOperation(value = "Create accounts in bulk from a csv (accountId,balance) or newline delimited json body", response = ImportResult.class)
+	@PostMapping(path = "/import", consumes = { TEXT_CSV_VALUE, APPLICATION_NDJSON_VALUE })
+	public ImportResult importAccounts(HttpServletRequest request) throws IOException {
+		AccountImporter.Format format = MediaType.parseMediaType(request.getContentType())
+				.isCompatibleWith(MediaType.valueOf(TEXT_CSV_VALUE)) ? AccountImporter.Format.CSV
+						: AccountImporter.Format.NDJSON;
+		log.info("Importing accounts as {}", format);
+		return this.accountImporter.importAccounts(request.getInputStream(), format);
+	}
+
+	@ApiOperation(value = "Stream the balances of all accounts as of one instant, as newline delimited json or a sequence of smile documents")
+	@GetMapping(path = "/export", produces = { APPLICATION_NDJSON_VALUE, SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
+	public void exportAccounts(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		// closing the generator below commits the response, so this is the last chance for an error status
+		if (!this.accountsService.supportsExport()) {
+			response.sendError(HttpStatus.NOT_IMPLEMENTED.value(), "consistent export is not supported by "
+					+ this.accountsService.getAccountsRepository().getClass().getSimpleName());
+			return;
+		}
+		String accept = request.getHeader("Accept");
+		boolean smile = accept != null && accept.contains(SmileHttpMessageConverter.APPLICATION_SMILE_VALUE);
+		JsonFactory factory = smile ? new SmileFactory() : this.objectMapper.getFactory();
+		response.setContentType(smile ? SmileHttpMessageConverter.APPLICATION_SMILE_VALUE : APPLICATION_NDJSON_VALUE);
+		// every account is written as soon as it is read, nothing but the generator buffer is held
+		try (JsonGenerator generator = factory.createGenerator(response.getOutputStream())) {
+			if (!smile) {
+				generator.setRootValueSeparator(null);
+			}
+			long exported = this.accountsService.exportAccounts((accountId, minorBalance) -> {
+				generator.writeStartObject();
+				generator.writeStringField("accountId", accountId);
+				generator.writeNumberField("balance", Money.toDecimal(minorBalance));
+				generator.writeEndObject();
+				if (!smile) {
+					generator.writeRaw('\n');
+				}
+			});
+			log.info("Exported {} accounts", exported);
+		}
+	}
+
 	@ApiOperation(value = "View account details for an account", response = Account.class)
 	@GetMapping(path = "/{accountId}")
 	public Account getAccount(@PathVariable String accountId) {
@@ -60,14 +145,41 @@ public class AccountsController {
 		return this.accountsService.getAccount(accountId);
 	}
 
+	@ApiOperation(value = "Page through the transfers of an account, newest first", response = LedgerPage.class)
+	@GetMapping(path = "/{accountId}/transactions")
+	public ResponseEntity<Object> getTransactions(@PathVariable String accountId,
+			@RequestParam(required = false) Long cursor,
+			@RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+		if (limit < 1 || (cursor != null && cursor < 0)) {
+			return new ResponseEntity<>("limit must be positive and cursor must not be negative", HttpStatus.BAD_REQUEST);
+		}
+		try {
+			return new ResponseEntity<>(this.accountsService.getTransactions(accountId, cursor,
+					Math.min(limit, MAX_PAGE_SIZE)), HttpStatus.OK);
+		} catch (AccountNotExistException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+		}
+	}
+
 	@ApiOperation(value = "View a list of available products", response = ResponseEntity.class)
 	@ApiResponses(value = { @ApiResponse(code = 200, message = "Successful transaction"),
 			@ApiResponse(code = 401, message = "You are not authorized to view the resource"),
 			@ApiResponse(code = 403, message = "Accessing the resource you were trying to reach is forbidden"),
-			@ApiResponse(code = 404, message = "The resource you were trying to reach is not found") })
-	@PostMapping(path = "/transaction", consumes = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<Object> transferMoney(@RequestBody @Valid UserTransaction userTransaction) {
+			@ApiResponse(code = 404, message = "The resource you were trying to reach is not found"),
+			@ApiResponse(code = 422, message = "The Idempotency-Key was already used for a different transaction") })
+	@PostMapping(path = "/transaction", consumes = { MediaType.APPLICATION_JSON_VALUE,
+			SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
+	public ResponseEntity<Object> transferMoney(@RequestBody @Valid UserTransaction userTransaction,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
 		log.info("Transfering money {}", userTransaction);
+		if (idempotencyKey == null) {
+			return transfer(userTransaction);
+		}
+		// a retry with the same key gets the outcome of the first request, account state is not touched again
+		return this.idempotencyCache.execute(idempotencyKey, userTransaction, () -> transfer(userTransaction));
+	}
+
+	private ResponseEntity<Object> transfer(UserTransaction userTransaction) {
 		try {
 			this.accountsService.performTransaction(userTransaction);
 		} catch (AccountNotExistException e) {
@@ -79,4 +191,73 @@ public class AccountsController {
 		}
 		return new ResponseEntity<>(HttpStatus.OK);
 	}
+
+	@ApiOperation(value = "Transfer from one account to many or from many accounts to one, all legs or none", response = ResponseEntity.class)
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "All legs transferred"),
+			@ApiResponse(code = 400, message = "An account does not exist, has not enough balance or there are too many legs"),
+			@ApiResponse(code = 422, message = "The Idempotency-Key was already used for a different transaction"),
+			@ApiResponse(code = 501, message = "Not supported by the configured repository mode") })
+	@PostMapping(path = "/transactions/multi-leg", consumes = { MediaType.APPLICATION_JSON_VALUE,
+			SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
+	public ResponseEntity<Object> transferMoneyMultiLeg(@RequestBody @Valid MultiLegTransaction transaction,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+		log.info("Transfering money in {} legs {} account {}", transaction.getLegs().size(),
+				transaction.isFanOut() ? "from" : "to", transaction.getAccountId());
+		if (idempotencyKey == null) {
+			return transferMultiLeg(transaction);
+		}
+		return this.idempotencyCache.execute(idempotencyKey, transaction, () -> transferMultiLeg(transaction));
+	}
+
+	private ResponseEntity<Object> transferMultiLeg(MultiLegTransaction transaction) {
+		try {
+			this.accountsService.performMultiLegTransaction(transaction);
+		} catch (AccountNotExistException | BalanceNotSufficientException | IllegalArgumentException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (UnsupportedOperationException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_IMPLEMENTED);
+		} catch (Exception e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	@ApiOperation(value = "Record a transfer that is settled later together with the other transfers between the same two accounts", response = ResponseEntity.class)
+	@ApiResponses(value = { @ApiResponse(code = 202, message = "Recorded, the balances change with the next settlement"),
+			@ApiResponse(code = 400, message = "An account does not exist or the payer cannot cover it on top of its unsettled transfers"),
+			@ApiResponse(code = 501, message = "Netting is not enabled or the repository is in journal mode") })
+	@PostMapping(path = "/transactions/netted", consumes = { MediaType.APPLICATION_JSON_VALUE,
+			SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
+	public ResponseEntity<Object> transferMoneyNetted(@RequestBody @Valid UserTransaction userTransaction) {
+		log.info("Recording netted transfer {}", userTransaction);
+		try {
+			this.nettingEngine.record(userTransaction);
+		} catch (AccountNotExistException | BalanceNotSufficientException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (UnsupportedOperationException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_IMPLEMENTED);
+		}
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+
+	@ApiOperation(value = "Perform a batch of transfers, every transfer gets its own result", response = TransactionResult.class, responseContainer = "List")
+	@PostMapping(path = "/transactions/batch", consumes = { MediaType.APPLICATION_JSON_VALUE,
+			SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
+	public List<TransactionResult> transferMoneyBatch(@RequestBody List<UserTransaction> userTransactions) {
+		log.info("Transfering money for batch of {} transactions", userTransactions.size());
+		return this.accountsService.performTransactions(userTransactions);
+	}
+
+	@ApiOperation(value = "Perform a batch of transfers sent as newline delimited json, every transfer gets its own result", response = TransactionResult.class, responseContainer = "List")
+	@PostMapping(path = "/transactions/batch", consumes = APPLICATION_NDJSON_VALUE)
+	public List<TransactionResult> transferMoneyBatchStream(HttpServletRequest request) throws IOException {
+		List<UserTransaction> userTransactions = new ArrayList<>();
+		try (MappingIterator<UserTransaction> iterator = this.objectMapper.readerFor(UserTransaction.class)
+				.readValues(request.getInputStream())) {
+			while (iterator.hasNext()) {
+				userTransactions.add(iterator.next());
+			}
+		}
+		return transferMoneyBatch(userTransactions);
+	}
 }
@@ -0,0 +1,190 @@
+package com.db.awmd.challenge.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Sheds load in front of the account endpoints.
+ *
+ * Single transfers, bulk transfers (batches and multi-leg), netted transfers and reads each
+ * have their own {@link ConcurrencyLimiter}, so a burst of one kind cannot starve the others
+ * and every limit only learns from latencies of comparable requests: one batch of thousands
+ * of transfers would otherwise look like a massive slowdown of single transfers. A request
+ * over the limit is answered right away with 503 and a Retry-After header instead of waiting
+ * for a thread or a lock, which keeps the latency of admitted requests close to the unloaded
+ * latency. An async request keeps its place until its response is complete, not just until
+ * the servlet thread is handed back. The export and account creation are not limited.
+ */
+@Component
+public class AdmissionControlFilter extends OncePerRequestFilter implements PublicMetrics {
+
+	private static final String ACCOUNTS = "/v1/accounts";
+
+	private static final String ASYNC_ACCOUNTS = "/v1/async/accounts";
+
+	private final boolean enabled;
+
+	private final long retryAfterSeconds;
+
+	private final ConcurrencyLimiter transferLimiter;
+
+	private final ConcurrencyLimiter bulkLimiter;
+
+	private final ConcurrencyLimiter nettedLimiter;
+
+	private final ConcurrencyLimiter readLimiter;
+
+	@Autowired
+	public AdmissionControlFilter(@Value("${admission.enabled:true}") boolean enabled,
+			@Value("${admission.retry-after-seconds:1}") long retryAfterSeconds,
+			@Value("${admission.tolerance:2.0}") double tolerance,
+			@Value("${admission.transfer.initial-limit:64}") int transferInitialLimit,
+			@Value("${admission.transfer.min-limit:8}") int transferMinLimit,
+			@Value("${admission.transfer.max-limit:1024}") int transferMaxLimit,
+			@Value("${admission.bulk.initial-limit:8}") int bulkInitialLimit,
+			@Value("${admission.bulk.min-limit:1}") int bulkMinLimit,
+			@Value("${admission.bulk.max-limit:64}") int bulkMaxLimit,
+			@Value("${admission.read.initial-limit:128}") int readInitialLimit,
+			@Value("${admission.read.min-limit:16}") int readMinLimit,
+			@Value("${admission.read.max-limit:4096}") int readMaxLimit) {
+		this.enabled = enabled;
+		this.retryAfterSeconds = retryAfterSeconds;
+		this.transferLimiter = new ConcurrencyLimiter(transferInitialLimit, transferMinLimit, transferMaxLimit, tolerance);
+		this.bulkLimiter = new ConcurrencyLimiter(bulkInitialLimit, bulkMinLimit, bulkMaxLimit, tolerance);
+		// recording is far cheaper than a transfer, same bounds but a gradient of its own
+		this.nettedLimiter = new ConcurrencyLimiter(transferInitialLimit, transferMinLimit, transferMaxLimit, tolerance);
+		this.readLimiter = new ConcurrencyLimiter(readInitialLimit, readMinLimit, readMaxLimit, tolerance);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		ConcurrencyLimiter limiter = enabled ? limiterFor(request) : null;
+		if (limiter == null) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+		if (!limiter.tryAcquire()) {
+			response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+			response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "too many concurrent requests, retry later");
+			return;
+		}
+		long started = System.nanoTime();
+		boolean async = false;
+		try {
+			filterChain.doFilter(request, response);
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new Release(limiter, started));
+				async = true;
+			}
+		} finally {
+			if (!async) {
+				limiter.release(System.nanoTime() - started);
+			}
+		}
+	}
+
+	private ConcurrencyLimiter limiterFor(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		String base = path.startsWith(ACCOUNTS) ? ACCOUNTS : path.startsWith(ASYNC_ACCOUNTS) ? ASYNC_ACCOUNTS : null;
+		if (base == null) {
+			return null;
+		}
+		String method = request.getMethod();
+		if ("POST".equals(method)) {
+			if (path.equals(base + "/transaction")) {
+				return transferLimiter;
+			}
+			if (path.equals(ACCOUNTS + "/transactions/batch") || path.equals(ACCOUNTS + "/transactions/multi-leg")) {
+				return bulkLimiter;
+			}
+			if (path.equals(ACCOUNTS + "/transactions/netted")) {
+				return nettedLimiter;
+			}
+			return null;
+		}
+		if ("GET".equals(method) && !path.equals(ACCOUNTS + "/export")) {
+			return readLimiter;
+		}
+		return null;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		addMetrics(metrics, "admission.transfer", transferLimiter);
+		addMetrics(metrics, "admission.bulk", bulkLimiter);
+		addMetrics(metrics, "admission.netted", nettedLimiter);
+		addMetrics(metrics, "admission.read", readLimiter);
+		return metrics;
+	}
+
+	private static void addMetrics(List<Metric<?>> metrics, String prefix, ConcurrencyLimiter limiter) {
+		metrics.add(new Metric<>(prefix + ".limit", limiter.getLimit()));
+		metrics.add(new Metric<>(prefix + ".in-flight", limiter.getInFlight()));
+		metrics.add(new Metric<>(prefix + ".rejected", limiter.getRejectedCount()));
+	}
+
+	/**
+	 * gives the place of an async request back once, whichever way it ends
+	 */
+	private static final class Release implements AsyncListener {
+
+		private final ConcurrencyLimiter limiter;
+
+		private final long started;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		Release(ConcurrencyLimiter limiter, long started) {
+			this.limiter = limiter;
+			this.started = started;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			release();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			release();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			release();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// the same listener stays registered for a restarted async cycle
+			event.getAsyncContext().addListener(this);
+		}
+
+		private void release() {
+			if (released.compareAndSet(false, true)) {
+				limiter.release(System.nanoTime() - started);
+			}
+		}
+	}
+}
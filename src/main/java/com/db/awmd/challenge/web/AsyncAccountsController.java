@@ -0,0 +1,108 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.validation.Valid;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.service.AccountsService;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Same operations as {@link AccountsController}, answered asynchronously.
+ *
+ * Handlers return a future and release the request thread right away, the servlet container
+ * keeps the connection open until the future completes. Waiting for account locks and queueing
+ * notifications happens on the executor of the {@link AccountsService}, so many more requests
+ * can be in flight than there are request threads.
+ */
+@RestController
+@RequestMapping("/v1/async/accounts")
+@Slf4j
+@Api(value = "async-account-api")
+public class AsyncAccountsController {
+
+	private final AccountsService accountsService;
+
+	private final IdempotencyCache idempotencyCache;
+
+	@Autowired
+	public AsyncAccountsController(AccountsService accountsService, IdempotencyCache idempotencyCache) {
+		this.accountsService = accountsService;
+		this.idempotencyCache = idempotencyCache;
+	}
+
+	@ApiOperation(value = "Create a new account in case the account id does not exist already", response = ResponseEntity.class)
+	@PostMapping(consumes = { MediaType.APPLICATION_JSON_VALUE,
+			SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
+	public CompletableFuture<ResponseEntity<Object>> createAccount(@RequestBody @Valid Account account) {
+		log.info("Creating account {}", account);
+		return this.accountsService.createAccountAsync(account)
+				.handle((result, failure) -> failure == null ? new ResponseEntity<>(HttpStatus.CREATED) : toResponse(failure));
+	}
+
+	/**
+	 * reading an account never waits for a lock, so it is answered right away
+	 */
+	@ApiOperation(value = "View account details for an account", response = Account.class)
+	@GetMapping(path = "/{accountId}")
+	public Account getAccount(@PathVariable String accountId) {
+		return this.accountsService.getAccount(accountId);
+	}
+
+	@ApiOperation(value = "Transfer money between two accounts", response = ResponseEntity.class)
+	@PostMapping(path = "/transaction", consumes = { MediaType.APPLICATION_JSON_VALUE,
+			SmileHttpMessageConverter.APPLICATION_SMILE_VALUE })
+	public CompletableFuture<ResponseEntity<Object>> transferMoney(@RequestBody @Valid UserTransaction userTransaction,
+			@RequestHeader(value = AccountsController.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+		log.info("Transfering money {}", userTransaction);
+		if (idempotencyKey == null) {
+			return transfer(userTransaction);
+		}
+		return this.idempotencyCache.executeAsync(idempotencyKey, userTransaction, () -> transfer(userTransaction));
+	}
+
+	private CompletableFuture<ResponseEntity<Object>> transfer(UserTransaction userTransaction) {
+		return this.accountsService.performTransactionAsync(userTransaction)
+				.handle((result, failure) -> failure == null ? new ResponseEntity<>(HttpStatus.OK) : toResponse(failure));
+	}
+
+	/**
+	 * the same status codes the blocking controller answers with
+	 */
+	private static ResponseEntity<Object> toResponse(Throwable failure) {
+		Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause()
+				: failure;
+		if (cause instanceof AccountNotExistException || cause instanceof BalanceNotSufficientException
+				|| cause instanceof DuplicateAccountIdException) {
+			return new ResponseEntity<>(cause.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+		if (cause instanceof RejectedExecutionException) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+					.body((Object) "too many asynchronous requests queued, retry later");
+		}
+		return new ResponseEntity<>(cause.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+	}
+}
@@ -0,0 +1,135 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit on concurrent requests that adapts to their latency, after the gradient algorithm.
+ *
+ * Latencies are averaged over windows of samples. A slow moving average of the windows
+ * stands for the latency without queueing. As long as a window is not slower than tolerance
+ * times that average the limit grows by its square root, beyond that it shrinks by the ratio
+ * of the two, at most by half. The limit only grows while at least half of it is used, a
+ * lightly loaded service keeps its limit.
+ *
+ * Acquiring is a single compare and swap. Samples are folded in under a lock that is only
+ * tried, a sample arriving while another is being folded in is dropped.
+ */
+public class ConcurrencyLimiter {
+
+	private static final int WINDOW_SAMPLES = 32;
+
+	// the long latency average covers about this many windows
+	private static final double LONG_WINDOWS = 20;
+
+	private static final double SMOOTHING = 0.2;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final double tolerance;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final ReentrantLock sampleLock = new ReentrantLock();
+
+	private volatile int limit;
+
+	// guarded by sampleLock
+	private double estimatedLimit;
+
+	private double longLatency;
+
+	private long windowLatencySum;
+
+	private int windowSamples;
+
+	private int windowMaxInFlight;
+
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max, were " + minLimit + ", "
+					+ initialLimit + ", " + maxLimit);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+		this.limit = initialLimit;
+		this.estimatedLimit = initialLimit;
+	}
+
+	/**
+	 * @return false if the limit is reached, otherwise {@link #release(long)} must follow
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				rejected.increment();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void release(long latencyNanos) {
+		int inFlightBefore = inFlight.getAndDecrement();
+		if (sampleLock.tryLock()) {
+			try {
+				sample(Math.max(1, latencyNanos), inFlightBefore);
+			} finally {
+				sampleLock.unlock();
+			}
+		}
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private void sample(long latencyNanos, int inFlightBefore) {
+		windowLatencySum += latencyNanos;
+		windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+		if (++windowSamples < WINDOW_SAMPLES) {
+			return;
+		}
+		double shortLatency = (double) windowLatencySum / windowSamples;
+		boolean appLimited = windowMaxInFlight < estimatedLimit / 2;
+		windowLatencySum = 0;
+		windowSamples = 0;
+		windowMaxInFlight = 0;
+
+		if (longLatency == 0) {
+			longLatency = shortLatency;
+		} else {
+			longLatency += (shortLatency - longLatency) / LONG_WINDOWS;
+		}
+		// once the queue drained the long average must not keep the limit low for long
+		if (longLatency > 2 * shortLatency) {
+			longLatency *= 0.95;
+		}
+
+		double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / shortLatency));
+		if (gradient == 1.0 && appLimited) {
+			return;
+		}
+		double next = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		next = estimatedLimit * (1 - SMOOTHING) + next * SMOOTHING;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, next));
+		limit = (int) estimatedLimit;
+	}
+}
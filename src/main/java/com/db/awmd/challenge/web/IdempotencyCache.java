@@ -0,0 +1,192 @@
+package com.db.awmd.challenge.web;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the outcome of requests sent with an Idempotency-Key, so a retried request gets
+ * the original answer instead of being applied a second time.
+ *
+ * Keys are spread over independently locked segments, each an insertion ordered map bounded
+ * by size and by age. A retry that arrives while the original is still running waits for the
+ * original outcome. Server errors are not remembered, such requests may be retried for real.
+ * Only finished entries are ever evicted, a running one is what stops its retry from being
+ * applied twice. A new key arriving at a segment full of running requests is answered with
+ * 503 without running it.
+ */
+@Component
+public class IdempotencyCache {
+
+	private final Segment[] segments;
+
+	private final long ttlNanos;
+
+	@Autowired
+	public IdempotencyCache(@Value("${idempotency.max-entries:100000}") int maxEntries,
+			@Value("${idempotency.ttl-seconds:86400}") long ttlSeconds,
+			@Value("${idempotency.segments:64}") int segmentCount) {
+		this.segments = new Segment[segmentCount];
+		int segmentCapacity = Math.max(1, maxEntries / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+	}
+
+	/**
+	 * Runs the action once per key and answers every later request with the same key from the
+	 * cache. A key reused for a different request (fingerprint not equal) is answered with 422.
+	 */
+	public ResponseEntity<Object> execute(String key, Object fingerprint, Supplier<ResponseEntity<Object>> action) {
+		try {
+			return executeAsync(key, fingerprint, () -> CompletableFuture.completedFuture(action.get())).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * same as {@link #execute(String, Object, Supplier)} for an action that completes later, a
+	 * retry of a running request gets a future of the original outcome instead of waiting for it
+	 */
+	public CompletableFuture<ResponseEntity<Object>> executeAsync(String key, Object fingerprint,
+			Supplier<CompletableFuture<ResponseEntity<Object>>> action) {
+		Segment segment = segments[(key.hashCode() & Integer.MAX_VALUE) % segments.length];
+		long now = System.nanoTime();
+		Entry existing;
+		Entry created = null;
+		segment.lock.lock();
+		try {
+			segment.removeExpired(now, ttlNanos);
+			existing = segment.entries.get(key);
+			if (existing == null) {
+				if (!segment.makeRoom()) {
+					return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+							.header(HttpHeaders.RETRY_AFTER, "1")
+							.body((Object) "too many requests with an Idempotency-Key in flight, retry later"));
+				}
+				created = new Entry(fingerprint, now);
+				segment.entries.put(key, created);
+			}
+		} finally {
+			segment.lock.unlock();
+		}
+
+		if (existing != null) {
+			if (!existing.fingerprint.equals(fingerprint)) {
+				return CompletableFuture.completedFuture(new ResponseEntity<>(
+						"Idempotency-Key " + key + " was already used for a different request", HttpStatus.UNPROCESSABLE_ENTITY));
+			}
+			// a dependent future, so no caller can complete the shared outcome
+			return existing.outcome.thenApply(outcome -> outcome);
+		}
+
+		Entry entry = created;
+		CompletableFuture<ResponseEntity<Object>> started;
+		try {
+			started = action.get();
+		} catch (RuntimeException e) {
+			segment.remove(key, entry);
+			entry.outcome.completeExceptionally(e);
+			throw e;
+		}
+		return started.whenComplete((outcome, failure) -> {
+			if (failure != null || outcome.getStatusCode().is5xxServerError()) {
+				segment.remove(key, entry);
+			}
+			if (failure != null) {
+				entry.outcome.completeExceptionally(failure);
+			} else {
+				entry.outcome.complete(outcome);
+			}
+		});
+	}
+
+	private static final class Entry {
+
+		private final Object fingerprint;
+
+		private final long createdNanos;
+
+		private final CompletableFuture<ResponseEntity<Object>> outcome = new CompletableFuture<>();
+
+		private Entry(Object fingerprint, long createdNanos) {
+			this.fingerprint = fingerprint;
+			this.createdNanos = createdNanos;
+		}
+	}
+
+	private static final class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Map<String, Entry> entries;
+
+		private final int capacity;
+
+		private Segment(int capacity) {
+			this.entries = new LinkedHashMap<>(Math.min(capacity, 1024));
+			this.capacity = capacity;
+		}
+
+		/**
+		 * entries are in insertion order, so the expired ones are all at the head, running ones stay
+		 */
+		private void removeExpired(long now, long ttlNanos) {
+			Iterator<Entry> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				if (now - entry.createdNanos <= ttlNanos) {
+					break;
+				}
+				if (entry.outcome.isDone()) {
+					iterator.remove();
+				}
+			}
+		}
+
+		/**
+		 * evicts the oldest finished entry if the segment is full
+		 *
+		 * @return false if the segment is full of running requests
+		 */
+		private boolean makeRoom() {
+			if (entries.size() < capacity) {
+				return true;
+			}
+			Iterator<Entry> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().outcome.isDone()) {
+					iterator.remove();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void remove(String key, Entry entry) {
+			lock.lock();
+			try {
+				entries.remove(key, entry);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.web;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Reads and writes Smile, the binary encoding of the Jackson data model. Request and response
+ * bodies keep their JSON structure and annotations, but are smaller and cheaper to parse, with
+ * no number or string escaping to do.
+ */
+public class SmileHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+	public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+	public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+
+	public SmileHttpMessageConverter(ObjectMapper objectMapper) {
+		super(objectMapper, APPLICATION_SMILE);
+		if (!(objectMapper.getFactory() instanceof SmileFactory)) {
+			throw new IllegalArgumentException("ObjectMapper must be configured with a SmileFactory");
+		}
+	}
+}
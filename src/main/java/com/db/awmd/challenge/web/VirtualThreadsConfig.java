@@ -0,0 +1,53 @@
+package com.db.awmd.challenge.web;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.db.awmd.challenge.service.VirtualThreads;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs every request on its own virtual thread instead of the Tomcat worker pool when
+ * virtual-threads.enabled is set and the runtime is Java 21 or later.
+ *
+ * A request waiting for an account lock or the journal then parks its virtual thread and
+ * frees the carrier, the number of requests in flight is no longer bounded by
+ * server.tomcat.max-threads but by server.tomcat.max-connections and the admission limits.
+ * On Java 8 the setting only logs a warning and the worker pool stays.
+ *
+ * Requests still pin their carrier while they log: logback's console and file appenders
+ * append under a monitor (AppenderBase.doAppend). Wrap them in an AsyncAppender, which hands
+ * events over through a lock based queue, when running on virtual threads.
+ */
+@Configuration
+@ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+@Slf4j
+public class VirtualThreadsConfig {
+
+	@Bean
+	public EmbeddedServletContainerCustomizer virtualThreadsCustomizer() {
+		return container -> {
+			if (!(container instanceof TomcatEmbeddedServletContainerFactory)) {
+				return;
+			}
+			if (!VirtualThreads.isSupported()) {
+				log.warn("Virtual threads need Java 21, running on {}, keeping the Tomcat worker pool",
+						System.getProperty("java.version"));
+				return;
+			}
+			((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+				ProtocolHandler handler = connector.getProtocolHandler();
+				if (handler instanceof AbstractProtocol) {
+					((AbstractProtocol<?>) handler).setExecutor(VirtualThreads.newPerTaskExecutor("http-virtual-"));
+					log.info("Handling requests of connector port {} on virtual threads", connector.getPort());
+				}
+			});
+		};
+	}
+}
@@ -0,0 +1,35 @@
+package com.db.awmd.challenge.web;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Adds Smile next to JSON. The converter goes last, so JSON stays the answer whenever a client
+ * does not ask for Smile explicitly with its Accept header.
+ */
+@Configuration
+public class WireFormatConfig extends WebMvcConfigurerAdapter {
+
+	private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+	@Autowired
+	public WireFormatConfig(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+		this.objectMapperBuilder = objectMapperBuilder;
+	}
+
+	@Override
+	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+		// same settings and modules as the json mapper, the shared builder itself is not changed
+		ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+		objectMapperBuilder.configure(smileMapper);
+		converters.add(new SmileHttpMessageConverter(smileMapper));
+	}
+}
@@ -1,13 +1,17 @@
 package com.db.awmd.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -23,7 +27,11 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.SmileHttpMessageConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -90,12 +98,26 @@ public class AccountsControllerTest {
 				.content("{\"accountId\":\"Id-123\",\"balance\":-1000}")).andExpect(status().isBadRequest());
 	}
 
+	@Test
+	public void createAccountBalanceWithTooManyDecimals() throws Exception {
+		// balances are kept in minor units (cents), anything finer cannot be represented
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-123\",\"balance\":10.005}")).andExpect(status().isBadRequest());
+	}
+
 	@Test
 	public void createAccountEmptyAccountId() throws Exception {
 		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
 				.content("{\"accountId\":\"\",\"balance\":1000}")).andExpect(status().isBadRequest());
 	}
 
+	@Test
+	public void createAccountTooLongAccountId() throws Exception {
+		String accountId = new String(new char[Account.MAX_ID_LENGTH + 1]).replace('\0', 'x');
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"" + accountId + "\",\"balance\":1000}")).andExpect(status().isBadRequest());
+	}
+
 	@Test
 	public void getAccount() throws Exception {
 		String uniqueAccountId = "Id-" + System.currentTimeMillis();
@@ -303,4 +325,252 @@ public class AccountsControllerTest {
 		this.mockMvc.perform(get("/v1/accounts/" + "123")).andExpect(status().isOk())
 				.andExpect(content().string("{\"accountId\":\"" + "123" + "\",\"balance\":3000}"));
 	}
+
+	/**
+	 * Batch transfer: every transfer gets its own result and transfers on the same account are applied in order
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void transferMoneyBatch() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"111\",\"balance\":100}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"123\",\"balance\":0}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"456\",\"balance\":50}")).andExpect(status().isCreated());
+
+		// the third transfer only succeeds if the first one was applied before it
+		this.mockMvc
+				.perform(post("/v1/accounts/transactions/batch").contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":100},"
+								+ "{\"accountFromId\":\"456\",\"accountToId\":\"789\",\"amount\":10},"
+								+ "{\"accountFromId\":\"123\",\"accountToId\":\"456\",\"amount\":60},"
+								+ "{\"accountFromId\":\"111\",\"accountToId\":\"456\",\"amount\":1},"
+								+ "{\"accountFromId\":\"111\",\"accountToId\":\"456\",\"amount\":-1}]"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].status").value(200))
+				.andExpect(jsonPath("$[1].status").value(400))
+				.andExpect(jsonPath("$[2].status").value(200))
+				.andExpect(jsonPath("$[3].status").value(400))
+				.andExpect(jsonPath("$[4].status").value(400))
+				.andExpect(jsonPath("$[4].message").value("Requested transaction amount cant be nagative"));
+
+		this.mockMvc.perform(get("/v1/accounts/" + "111")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"" + "111" + "\",\"balance\":0}"));
+		this.mockMvc.perform(get("/v1/accounts/" + "123")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"" + "123" + "\",\"balance\":40}"));
+		this.mockMvc.perform(get("/v1/accounts/" + "456")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"" + "456" + "\",\"balance\":110}"));
+	}
+
+	/**
+	 * Multi-leg transfer: one account pays several, all legs or none
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void transferMoneyMultiLeg() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"payroll\",\"balance\":100}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"employee-1\",\"balance\":0}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"employee-2\",\"balance\":0}")).andExpect(status().isCreated());
+
+		this.mockMvc.perform(post("/v1/accounts/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFromId\":\"payroll\",\"legs\":[{\"accountId\":\"employee-1\",\"amount\":40},"
+						+ "{\"accountId\":\"employee-2\",\"amount\":35.5}]}"))
+				.andExpect(status().isOk());
+		// the second leg would overdraw the payroll account, so the first one is not applied either
+		this.mockMvc.perform(post("/v1/accounts/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFromId\":\"payroll\",\"legs\":[{\"accountId\":\"employee-1\",\"amount\":20},"
+						+ "{\"accountId\":\"employee-2\",\"amount\":20}]}"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("balance is not sufficient in account id = payroll"));
+		this.mockMvc.perform(post("/v1/accounts/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFromId\":\"payroll\",\"accountToId\":\"employee-1\","
+						+ "\"legs\":[{\"accountId\":\"employee-2\",\"amount\":1}]}"))
+				.andExpect(status().isBadRequest());
+
+		this.mockMvc.perform(get("/v1/accounts/payroll")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"payroll\",\"balance\":24.5}"));
+		this.mockMvc.perform(get("/v1/accounts/employee-1")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"employee-1\",\"balance\":40}"));
+		this.mockMvc.perform(get("/v1/accounts/employee-2")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"employee-2\",\"balance\":35.5}"));
+	}
+
+	/**
+	 * Batch transfer sent as newline delimited json
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void transferMoneyBatchNdjson() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"111\",\"balance\":100}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"123\",\"balance\":0}")).andExpect(status().isCreated());
+
+		this.mockMvc
+				.perform(post("/v1/accounts/transactions/batch").contentType("application/x-ndjson")
+						.content("{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":30}\n"
+								+ "{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":30}\n"))
+				.andExpect(status().isOk()).andExpect(jsonPath("$[0].status").value(200))
+				.andExpect(jsonPath("$[1].status").value(200));
+
+		this.mockMvc.perform(get("/v1/accounts/" + "123")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"" + "123" + "\",\"balance\":60}"));
+	}
+
+	/**
+	 * A retried transfer with the same Idempotency-Key is answered from the cache and not applied again
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void transferMoneyWithIdempotencyKeyAppliedOnce() throws Exception {
+		String key = "key-" + System.nanoTime();
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"111\",\"balance\":1000}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"123\",\"balance\":2000}")).andExpect(status().isCreated());
+
+		for (int i = 0; i < 2; i++) {
+			this.mockMvc
+					.perform(post("/v1/accounts/transaction").contentType(MediaType.APPLICATION_JSON)
+							.header("Idempotency-Key", key)
+							.content("{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":500}"))
+					.andExpect(status().isOk());
+		}
+
+		this.mockMvc.perform(get("/v1/accounts/" + "111")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"" + "111" + "\",\"balance\":500}"));
+
+		// the same key for another transfer is refused
+		this.mockMvc
+				.perform(post("/v1/accounts/transaction").contentType(MediaType.APPLICATION_JSON)
+						.header("Idempotency-Key", key)
+						.content("{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":100}"))
+				.andExpect(status().isUnprocessableEntity());
+	}
+
+	@Test
+	public void getTransactionsPagesNewestFirst() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"111\",\"balance\":100}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"123\",\"balance\":0}")).andExpect(status().isCreated());
+		for (int amount = 1; amount <= 3; amount++) {
+			this.mockMvc
+					.perform(post("/v1/accounts/transaction").contentType(MediaType.APPLICATION_JSON)
+							.content("{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":" + amount + "}"))
+					.andExpect(status().isOk());
+		}
+
+		this.mockMvc.perform(get("/v1/accounts/111/transactions?limit=2")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.entries.length()").value(2))
+				.andExpect(jsonPath("$.entries[0].sequence").value(2))
+				.andExpect(jsonPath("$.entries[0].counterpartyAccountId").value("123"))
+				.andExpect(jsonPath("$.entries[0].amount").value(-3))
+				.andExpect(jsonPath("$.entries[0].balance").value(94))
+				.andExpect(jsonPath("$.nextCursor").value(1));
+		this.mockMvc.perform(get("/v1/accounts/111/transactions?limit=2&cursor=1")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.entries.length()").value(1))
+				.andExpect(jsonPath("$.entries[0].amount").value(-1))
+				.andExpect(jsonPath("$.nextCursor").doesNotExist());
+		this.mockMvc.perform(get("/v1/accounts/123/transactions")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.entries[0].amount").value(3))
+				.andExpect(jsonPath("$.entries[0].balance").value(6));
+
+		this.mockMvc.perform(get("/v1/accounts/missing/transactions")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void transferMoneyAsync() throws Exception {
+		MvcResult created = this.mockMvc.perform(post("/v1/async/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"111\",\"balance\":100}")).andExpect(request().asyncStarted()).andReturn();
+		this.mockMvc.perform(asyncDispatch(created)).andExpect(status().isCreated());
+		this.accountsService.createAccount(new Account("123", BigDecimal.ZERO));
+
+		MvcResult transferred = this.mockMvc
+				.perform(post("/v1/async/accounts/transaction").contentType(MediaType.APPLICATION_JSON)
+						.content("{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":40}"))
+				.andExpect(request().asyncStarted()).andReturn();
+		this.mockMvc.perform(asyncDispatch(transferred)).andExpect(status().isOk());
+
+		MvcResult refused = this.mockMvc
+				.perform(post("/v1/async/accounts/transaction").contentType(MediaType.APPLICATION_JSON)
+						.content("{\"accountFromId\":\"111\",\"accountToId\":\"123\",\"amount\":61}"))
+				.andExpect(request().asyncStarted()).andReturn();
+		this.mockMvc.perform(asyncDispatch(refused)).andExpect(status().isBadRequest());
+
+		this.mockMvc.perform(get("/v1/async/accounts/111")).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"111\",\"balance\":60}"));
+	}
+
+	@Test
+	public void createAccountAndTransferMoneyInSmile() throws Exception {
+		ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+		MediaType smile = SmileHttpMessageConverter.APPLICATION_SMILE;
+		this.mockMvc.perform(post("/v1/accounts").contentType(smile)
+				.content(smileMapper.writeValueAsBytes(new Account("111", new BigDecimal("100.50")))))
+				.andExpect(status().isCreated());
+		this.accountsService.createAccount(new Account("123", BigDecimal.ZERO));
+
+		this.mockMvc.perform(post("/v1/accounts/transaction").contentType(smile)
+				.content(smileMapper.writeValueAsBytes(new UserTransaction("111", "123", new BigDecimal("40.25")))))
+				.andExpect(status().isOk());
+
+		MvcResult result = this.mockMvc.perform(get("/v1/accounts/111").accept(smile)).andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(smile)).andReturn();
+		Account account = smileMapper.readValue(result.getResponse().getContentAsByteArray(), Account.class);
+		assertThat(account.getBalance()).isEqualByComparingTo("60.25");
+
+		// json stays the default
+		this.mockMvc.perform(get("/v1/accounts/111")).andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+	}
+
+	@Test
+	public void importAccountsCsvAndNdjson() throws Exception {
+		this.accountsService.createAccount(new Account("Id-2", new BigDecimal(5)));
+		String csv = "accountId,balance\nId-1,100.50\nId-2,7\nId-3,-1\nId-4,1.001\n\nId-5,0\nId-1,9\n";
+
+		this.mockMvc.perform(post("/v1/accounts/import").contentType("text/csv").content(csv))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.created").value(2))
+				.andExpect(jsonPath("$.duplicates").value(2))
+				.andExpect(jsonPath("$.invalid").value(2))
+				.andExpect(jsonPath("$.errors[0]").value("line 4: Initial balance must be positive."));
+		assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("100.50");
+		assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("5");
+
+		this.mockMvc.perform(post("/v1/accounts/import").contentType("application/x-ndjson")
+				.content("{\"accountId\":\"Id-6\",\"balance\":1}\n{\"accountId\":\"Id-7\",\"balance\":2}\n"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.created").value(2));
+		assertThat(accountsService.getAccount("Id-7").getBalance()).isEqualByComparingTo("2");
+	}
+
+	@Test
+	public void exportAccountsAsNdjsonAndSmile() throws Exception {
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal("10.50")));
+		this.accountsService.createAccount(new Account("Id-2", new BigDecimal("3")));
+		this.accountsService.performTransaction(new UserTransaction("Id-1", "Id-2", new BigDecimal("0.50")));
+
+		MvcResult result = this.mockMvc.perform(get("/v1/accounts/export").accept("application/x-ndjson"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith("application/x-ndjson")).andReturn();
+		String[] lines = result.getResponse().getContentAsString().split("\n");
+		assertThat(lines).hasSize(2).contains("{\"accountId\":\"Id-1\",\"balance\":10}",
+				"{\"accountId\":\"Id-2\",\"balance\":3.5}");
+
+		result = this.mockMvc.perform(get("/v1/accounts/export").accept(SmileHttpMessageConverter.APPLICATION_SMILE))
+				.andExpect(status().isOk()).andReturn();
+		List<Account> accounts = new ObjectMapper(new SmileFactory()).readerFor(Account.class)
+				.<Account>readValues(result.getResponse().getContentAsByteArray()).readAll();
+		assertThat(accounts).extracting(Account::getAccountId).containsOnly("Id-1", "Id-2");
+	}
 }
@@ -0,0 +1,176 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.repository.AccountsRepositoryJournaled;
+import com.db.awmd.challenge.service.AccountsService;
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.FileSystemUtils;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.repository.mode=journal",
+    "accounts.journal.path=build/test-journal/accounts.journal",
+    "accounts.snapshot.directory=build/test-journal/snapshots", "accounts.snapshot.interval-seconds=0" })
+public class AccountsRepositoryJournaledTest {
+
+  private static final Path JOURNAL_DIR = Paths.get("build/test-journal");
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @BeforeClass
+  public static void removeOldJournal() {
+    // runs before the spring context is started, so every run begins with an empty journal
+    FileSystemUtils.deleteRecursively(JOURNAL_DIR.toFile());
+  }
+
+  @Test
+  public void replayRestoresAccounts() throws Exception {
+    assertThat(accountsService.getAccountsRepository()).isInstanceOf(AccountsRepositoryJournaled.class);
+
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("100.50")));
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal("10")));
+    this.accountsService.performTransaction(new UserTransaction("Id-1", "Id-2", new BigDecimal("40.25")));
+    this.accountsService.createAccount(new Account("Id-7", new BigDecimal("30")));
+    this.accountsService.createAccount(new Account("Id-8", BigDecimal.ZERO));
+    this.accountsService.performMultiLegTransaction(new MultiLegTransaction("Id-7", null, Arrays.asList(
+        new MultiLegTransaction.Leg("Id-8", BigDecimal.TEN), new MultiLegTransaction.Leg("Id-8", new BigDecimal("5")))));
+
+    // every call returns only after its record was forced to disk, so a copy of the file is a consistent restart point
+    Path restartJournal = JOURNAL_DIR.resolve("restart.journal");
+    Files.copy(JOURNAL_DIR.resolve("accounts.journal"), restartJournal, StandardCopyOption.REPLACE_EXISTING);
+
+    AccountsRepositoryJournaled restarted = new AccountsRepositoryJournaled(16, "", 1, restartJournal.toString(), 16, 1,
+        JOURNAL_DIR.resolve("restart-snapshots").toString(), 0);
+    try {
+      assertThat(restarted.getAccount("Id-1").getBalance()).isEqualByComparingTo("60.25");
+      assertThat(restarted.getAccount("Id-2").getBalance()).isEqualByComparingTo("50.25");
+      assertThat(restarted.getAccount("Id-7").getBalance()).isEqualByComparingTo("15");
+      assertThat(restarted.getAccount("Id-8").getBalance()).isEqualByComparingTo("15");
+    } finally {
+      restarted.close();
+    }
+  }
+
+  @Test
+  public void replayIgnoresTornRecordAtTheEnd() throws Exception {
+    this.accountsService.createAccount(new Account("Id-3", new BigDecimal("7")));
+
+    Path tornJournal = JOURNAL_DIR.resolve("torn.journal");
+    Files.copy(JOURNAL_DIR.resolve("accounts.journal"), tornJournal, StandardCopyOption.REPLACE_EXISTING);
+    File file = tornJournal.toFile();
+    // simulate a crash in the middle of writing a record
+    Files.write(tornJournal, new byte[] { 0, 0, 0, 42, 2, 0 }, StandardOpenOption.APPEND);
+    long tornLength = file.length();
+
+    AccountsRepositoryJournaled restarted = new AccountsRepositoryJournaled(16, "", 1, tornJournal.toString(), 16, 1,
+        JOURNAL_DIR.resolve("torn-snapshots").toString(), 0);
+    try {
+      assertThat(restarted.getAccount("Id-3").getBalance()).isEqualByComparingTo("7");
+      assertThat(file.length()).isEqualTo(tornLength - 6);
+    } finally {
+      restarted.close();
+    }
+  }
+
+  @Test
+  public void restartFromSnapshotReplaysOnlyJournalTail() throws Exception {
+    AccountsRepositoryJournaled repository = (AccountsRepositoryJournaled) accountsService.getAccountsRepository();
+    this.accountsService.createAccount(new Account("Id-4", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-5", new BigDecimal("100")));
+    this.accountsService.performTransaction(new UserTransaction("Id-4", "Id-5", new BigDecimal("10")));
+
+    Path snapshot = repository.snapshot();
+
+    // changes after the snapshot only exist in the journal tail
+    this.accountsService.performTransaction(new UserTransaction("Id-5", "Id-4", new BigDecimal("25")));
+    this.accountsService.createAccount(new Account("Id-6", new BigDecimal("1")));
+    this.accountsService.performTransaction(new UserTransaction("Id-4", "Id-6", new BigDecimal("5")));
+
+    Path snapshotCopy = JOURNAL_DIR.resolve("snapshot-restart").resolve(snapshot.getFileName());
+    Files.createDirectories(snapshotCopy.getParent());
+    Files.copy(snapshot, snapshotCopy, StandardCopyOption.REPLACE_EXISTING);
+    Path restartJournal = JOURNAL_DIR.resolve("snapshot-restart.journal");
+    Files.copy(JOURNAL_DIR.resolve("accounts.journal"), restartJournal, StandardCopyOption.REPLACE_EXISTING);
+
+    AccountsRepositoryJournaled restarted = new AccountsRepositoryJournaled(16, "", 1, restartJournal.toString(), 16, 1,
+        snapshotCopy.getParent().toString(), 0);
+    try {
+      assertThat(restarted.getAccount("Id-4").getBalance()).isEqualByComparingTo("110");
+      assertThat(restarted.getAccount("Id-5").getBalance()).isEqualByComparingTo("85");
+      assertThat(restarted.getAccount("Id-6").getBalance()).isEqualByComparingTo("6");
+    } finally {
+      restarted.close();
+    }
+  }
+
+  @Test
+  public void snapshotIsNeverAheadOfTheJournalOnDisk() throws Exception {
+    Path directory = JOURNAL_DIR.resolve("buffered");
+    // a long flush interval keeps appended records in memory while the snapshot is written
+    AccountsRepositoryJournaled repository = new AccountsRepositoryJournaled(16, "", 1,
+        directory.resolve("accounts.journal").toString(), 1024, 500, directory.resolve("snapshots").toString(), 0);
+    Path snapshot;
+    try {
+      repository.createAccount(new Account("Id-B-1", new BigDecimal("100")));
+      Thread create = new Thread(() -> repository.createAccount(new Account("Id-B-2", BigDecimal.TEN)));
+      create.start();
+      // created in memory, the caller still waits for the flush
+      while (repository.getAccount("Id-B-2") == null) {
+        Thread.sleep(1);
+      }
+      snapshot = repository.snapshot();
+
+      // a crash right after the snapshot leaves the journal as it is on disk now
+      Files.copy(directory.resolve("accounts.journal"), directory.resolve("crashed.journal"),
+          StandardCopyOption.REPLACE_EXISTING);
+      create.join();
+    } finally {
+      repository.close();
+    }
+
+    AccountsRepositoryJournaled journalOnly = new AccountsRepositoryJournaled(16, "", 1,
+        directory.resolve("crashed.journal").toString(), 16, 1, directory.resolve("no-snapshots").toString(), 0);
+    try {
+      assertThat(journalOnly.getAccount("Id-B-2").getBalance()).isEqualByComparingTo("10");
+    } finally {
+      journalOnly.close();
+    }
+
+    Path snapshotCopy = directory.resolve("crashed-snapshots").resolve(snapshot.getFileName());
+    Files.createDirectories(snapshotCopy.getParent());
+    Files.copy(snapshot, snapshotCopy, StandardCopyOption.REPLACE_EXISTING);
+    AccountsRepositoryJournaled restarted = new AccountsRepositoryJournaled(16, "", 1,
+        directory.resolve("crashed.journal").toString(), 16, 1, snapshotCopy.getParent().toString(), 0);
+    try {
+      restarted.createAccount(new Account("Id-B-3", BigDecimal.ONE));
+    } finally {
+      restarted.close();
+    }
+    // what was acknowledged after the restart survives the next one
+    AccountsRepositoryJournaled again = new AccountsRepositoryJournaled(16, "", 1,
+        directory.resolve("crashed.journal").toString(), 16, 1, snapshotCopy.getParent().toString(), 0);
+    try {
+      assertThat(again.getAccount("Id-B-2").getBalance()).isEqualByComparingTo("10");
+      assertThat(again.getAccount("Id-B-3").getBalance()).isEqualByComparingTo("1");
+    } finally {
+      again.close();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.service.AccountsService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.repository.mode=offheap", "accounts.offheap.capacity=4096",
+    "accounts.lock.stripes=8" })
+public class AccountsRepositoryOffHeapTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Test
+  public void concurrentTransfersKeepTotal() throws Exception {
+    assertThat(accountsService.getAccountsRepository()).isInstanceOf(AccountsRepositoryOffHeap.class);
+    // with a table this small many ids share a probe sequence
+    int accounts = 1000;
+    for (int i = 0; i < accounts; i++) {
+      this.accountsService.createAccount(new Account("Id-O-" + i, new BigDecimal(100)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 4000; i++) {
+      UserTransaction transaction = new UserTransaction("Id-O-" + (i % accounts), "Id-O-" + ((i * 7 + 3) % accounts),
+          new BigDecimal("0.5"));
+      futures.add(executor.submit(() -> {
+        try {
+          this.accountsService.performTransaction(transaction);
+        } catch (BalanceNotSufficientException ex) {
+          // an account may run dry for a moment
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accounts; i++) {
+      total = total.add(this.accountsService.getAccount("Id-O-" + i).getBalance());
+    }
+    assertThat(total).isEqualByComparingTo("100000");
+
+    AtomicLong exported = new AtomicLong();
+    this.accountsService.exportAccounts((accountId, minorBalance) -> {
+      if (accountId.startsWith("Id-O-")) {
+        exported.addAndGet(minorBalance);
+      }
+    });
+    assertThat(exported.get()).isEqualTo(100000 * 100L);
+  }
+
+  @Test
+  public void duplicatesMissingAccountsAndLongIds() throws Exception {
+    this.accountsService.createAccount(new Account("Id-D-1", new BigDecimal("10.25")));
+    try {
+      this.accountsService.createAccount(new Account("Id-D-1", BigDecimal.ONE));
+      fail("Should have failed when adding duplicate account");
+    } catch (DuplicateAccountIdException ex) {
+      assertThat(ex.getMessage()).isEqualTo("Account id Id-D-1 already exists!");
+    }
+    assertThat(this.accountsService.getAccount("Id-D-1").getBalance()).isEqualByComparingTo("10.25");
+    assertThat(this.accountsService.getAccount("Id-D-missing")).isNull();
+
+    String longId = "Id-" + new String(new char[60]).replace('\0', 'x');
+    assertThat(this.accountsService.getAccount(longId)).isNull();
+    try {
+      this.accountsService.performTransaction(new UserTransaction("Id-D-1", longId, BigDecimal.ONE));
+      fail("Should have failed for a missing account");
+    } catch (AccountNotExistException ex) {
+      // expected
+    }
+    try {
+      this.accountsService.createAccount(new Account(longId, BigDecimal.ONE));
+      fail("Should have failed for an id that does not fit a slot");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+}
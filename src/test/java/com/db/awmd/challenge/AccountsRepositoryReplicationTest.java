@@ -0,0 +1,144 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.exception.ReplicaNotAvailableException;
+import com.db.awmd.challenge.repository.AccountsRepositoryFollower;
+import com.db.awmd.challenge.repository.AccountsRepositoryLeader;
+import com.db.awmd.challenge.service.AccountsService;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.repository.mode=leader", "accounts.replication.port=0",
+    "accounts.replication.snapshot-directory=build/test-replication", "accounts.hot.ids=Id-R-0",
+    "accounts.hot.shards=4", "accounts.replication.secret=" + AccountsRepositoryReplicationTest.SECRET })
+public class AccountsRepositoryReplicationTest {
+
+  static final String SECRET = "replication-test-secret";
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Test
+  public void followersConvergeOnTheLeader() throws Exception {
+    assertThat(accountsService.getAccountsRepository()).isInstanceOf(AccountsRepositoryLeader.class);
+    String leader = "localhost:" + ((AccountsRepositoryLeader) accountsService.getAccountsRepository()).port();
+    int accounts = 20;
+    for (int i = 0; i < accounts / 2; i++) {
+      this.accountsService.createAccount(new Account("Id-R-" + i, new BigDecimal(100)));
+    }
+    AccountsRepositoryFollower early = new AccountsRepositoryFollower(16, leader, SECRET, 1000);
+    AccountsRepositoryFollower late = null;
+    try {
+      for (int i = accounts / 2; i < accounts; i++) {
+        this.accountsService.createAccount(new Account("Id-R-" + i, new BigDecimal(100)));
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 4000; i++) {
+        UserTransaction transaction = new UserTransaction("Id-R-" + (i % accounts), "Id-R-" + ((i * 7 + 3) % accounts),
+            new BigDecimal("0.5"));
+        futures.add(executor.submit(() -> {
+          try {
+            this.accountsService.performTransaction(transaction);
+          } catch (BalanceNotSufficientException ex) {
+            // an account may run dry for a moment
+          }
+        }));
+      }
+      // this one copies the accounts while the transfers run
+      late = new AccountsRepositoryFollower(16, leader, SECRET, 1000);
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      executor.shutdown();
+
+      for (AccountsRepositoryFollower follower : new AccountsRepositoryFollower[] { early, late }) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < accounts; i++) {
+          BigDecimal expected = this.accountsService.getAccount("Id-R-" + i).getBalance();
+          assertThat(awaitBalance(follower, "Id-R-" + i, expected)).isEqualByComparingTo(expected);
+          total = total.add(expected);
+        }
+        assertThat(total).isEqualByComparingTo("2000");
+        assertThat(follower.stalenessMillis()).isLessThanOrEqualTo(1000);
+      }
+    } finally {
+      early.close();
+      if (late != null) {
+        late.close();
+      }
+    }
+  }
+
+  @Test
+  public void followerRefusesWritesAndStaleReads() throws Exception {
+    int unusedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      unusedPort = socket.getLocalPort();
+    }
+    AccountsRepositoryFollower follower = new AccountsRepositoryFollower(16, "localhost:" + unusedPort, SECRET, 1000);
+    try {
+      follower.getAccount("Id-R-0");
+      fail("Should have failed without a leader");
+    } catch (ReplicaNotAvailableException ex) {
+      assertThat(ex.getMessage()).isEqualTo("replica has not caught up with the leader yet");
+    }
+    try {
+      follower.performTransaction(new UserTransaction("Id-R-0", "Id-R-1", BigDecimal.ONE));
+      fail("Should have failed on a follower");
+    } catch (UnsupportedOperationException ex) {
+      assertThat(ex.getMessage()).startsWith("read only follower");
+    } finally {
+      follower.close();
+    }
+  }
+
+  @Test
+  public void followerWithTheWrongSecretGetsNothing() throws Exception {
+    this.accountsService.createAccount(new Account("Id-R-Secret", new BigDecimal(100)));
+    String leader = "localhost:" + ((AccountsRepositoryLeader) accountsService.getAccountsRepository()).port();
+    AccountsRepositoryFollower follower = new AccountsRepositoryFollower(16, leader, "wrong-secret", 1000);
+    try {
+      Thread.sleep(1500);
+      assertThat(follower.stalenessMillis()).isEqualTo(Long.MAX_VALUE);
+    } finally {
+      follower.close();
+    }
+  }
+
+  private static BigDecimal awaitBalance(AccountsRepositoryFollower follower, String accountId, BigDecimal expected)
+      throws InterruptedException {
+    BigDecimal balance = null;
+    for (long deadline = System.currentTimeMillis() + 10_000; System.currentTimeMillis() < deadline;
+        Thread.sleep(10)) {
+      try {
+        Account account = follower.getAccount(accountId);
+        balance = account == null ? null : account.getBalance();
+        if (balance != null && balance.compareTo(expected) == 0) {
+          break;
+        }
+      } catch (ReplicaNotAvailableException ex) {
+        // still copying the accounts
+      }
+    }
+    return balance;
+  }
+}
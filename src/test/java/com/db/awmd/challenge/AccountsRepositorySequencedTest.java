@@ -0,0 +1,110 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepositorySequenced;
+import com.db.awmd.challenge.service.AccountsService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.repository.mode=sequencer", "accounts.sequencer.partitions=4",
+    "accounts.sequencer.ring-size=64" })
+public class AccountsRepositorySequencedTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Test
+  public void transfersAcrossPartitionsKeepTotal() throws Exception {
+    assertThat(accountsService.getAccountsRepository()).isInstanceOf(AccountsRepositorySequenced.class);
+    int accounts = 16;
+    for (int i = 0; i < accounts; i++) {
+      this.accountsService.createAccount(new Account("Id-S-" + i, new BigDecimal(100)));
+    }
+
+    // a ring much smaller than the number of transfers also makes the callers wait for free slots
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      UserTransaction transaction = new UserTransaction("Id-S-" + (i % accounts), "Id-S-" + ((i * 7 + 3) % accounts),
+          BigDecimal.ONE);
+      futures.add(executor.submit(() -> {
+        try {
+          this.accountsService.performTransaction(transaction);
+        } catch (BalanceNotSufficientException ex) {
+          // an account may run dry for a moment
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accounts; i++) {
+      total = total.add(this.accountsService.getAccount("Id-S-" + i).getBalance());
+    }
+    assertThat(total).isEqualByComparingTo("1600");
+  }
+
+  @Test
+  public void rejectionsReachTheCaller() throws Exception {
+    this.accountsService.createAccount(new Account("Id-R-1", new BigDecimal(10)));
+    this.accountsService.createAccount(new Account("Id-R-2", new BigDecimal(10)));
+
+    try {
+      this.accountsService.createAccount(new Account("Id-R-1", new BigDecimal(10)));
+      fail("Should have failed when adding duplicate account");
+    } catch (DuplicateAccountIdException ex) {
+      assertThat(ex.getMessage()).isEqualTo("Account id Id-R-1 already exists!");
+    }
+    try {
+      this.accountsService.performTransaction(new UserTransaction("Id-R-1", "Id-R-2", new BigDecimal(11)));
+      fail("Should have failed for insufficient balance");
+    } catch (BalanceNotSufficientException ex) {
+      // expected
+    }
+    try {
+      this.accountsService.performTransaction(new UserTransaction("Id-R-1", "Id-R-missing", BigDecimal.ONE));
+      fail("Should have failed for a missing account");
+    } catch (AccountNotExistException ex) {
+      // expected
+    }
+
+    this.accountsService.performTransaction(new UserTransaction("Id-R-1", "Id-R-2", new BigDecimal(10)));
+    assertThat(this.accountsService.getAccount("Id-R-1").getBalance()).isEqualByComparingTo("0");
+    assertThat(this.accountsService.getAccount("Id-R-2").getBalance()).isEqualByComparingTo("20");
+  }
+
+  @Test
+  public void callersAreAnsweredAfterClose() throws Exception {
+    AccountsRepositorySequenced repository = new AccountsRepositorySequenced(2, 64);
+    repository.createAccount(new Account("Id-C-1", new BigDecimal(10)));
+    repository.close();
+
+    try {
+      repository.createAccount(new Account("Id-C-2", new BigDecimal(10)));
+      fail("Should have failed once the sequencer is shut down");
+    } catch (IllegalStateException ex) {
+      assertThat(ex.getMessage()).isEqualTo("the sequencer is shut down");
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.AccountsController;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.DelegatingServletOutputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.context.WebApplicationContext;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.repository.mode=sharded", "accounts.sharded.shards=4" })
+public class AccountsRepositoryShardedTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private TransferMetrics transferMetrics;
+
+  @Autowired
+  private AccountsController accountsController;
+
+  @Autowired
+  private WebApplicationContext webApplicationContext;
+
+  @Test
+  public void localAndCrossShardTransfersKeepTotal() throws Exception {
+    assertThat(accountsService.getAccountsRepository()).isInstanceOf(AccountsRepositorySharded.class);
+    int accounts = 16;
+    for (int i = 0; i < accounts; i++) {
+      this.accountsService.createAccount(new Account("Id-S-" + i, new BigDecimal(100)));
+    }
+    long localBefore = metric("transfers.sharded.local");
+    long crossShardBefore = metric("transfers.sharded.cross-shard");
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      UserTransaction transaction = new UserTransaction("Id-S-" + (i % accounts), "Id-S-" + ((i * 7 + 3) % accounts),
+          BigDecimal.ONE);
+      futures.add(executor.submit(() -> {
+        try {
+          this.accountsService.performTransaction(transaction);
+        } catch (BalanceNotSufficientException ex) {
+          // an account may run dry for a moment
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accounts; i++) {
+      total = total.add(this.accountsService.getAccount("Id-S-" + i).getBalance());
+    }
+    assertThat(total).isEqualByComparingTo("1600");
+    assertThat(metric("transfers.sharded.local") - localBefore + metric("transfers.sharded.cross-shard")
+        - crossShardBefore).isEqualTo(2000);
+  }
+
+  @Test
+  public void failedCrossShardTransferGivesReservationBack() throws Exception {
+    // find two accounts in different shards
+    String first = "Id-F-0";
+    String second = null;
+    this.accountsService.createAccount(new Account(first, new BigDecimal(10)));
+    for (int i = 1; second == null; i++) {
+      String candidate = "Id-F-" + i;
+      this.accountsService.createAccount(new Account(candidate, new BigDecimal(10)));
+      long crossShardBefore = metric("transfers.sharded.cross-shard");
+      this.accountsService.performTransaction(new UserTransaction(first, candidate, BigDecimal.ZERO));
+      if (metric("transfers.sharded.cross-shard") > crossShardBefore) {
+        second = candidate;
+      }
+    }
+
+    try {
+      this.accountsService.performTransaction(new UserTransaction(first, second, new BigDecimal(11)));
+      fail("Should have failed for insufficient balance");
+    } catch (BalanceNotSufficientException ex) {
+      // expected
+    }
+    try {
+      this.accountsService.performTransaction(new UserTransaction(first, "Id-F-missing", BigDecimal.ONE));
+      fail("Should have failed for a missing account");
+    } catch (AccountNotExistException ex) {
+      // expected
+    }
+    assertThat(this.accountsService.getAccount(first).getBalance()).isEqualByComparingTo("10");
+
+    this.accountsService.performTransaction(new UserTransaction(first, second, new BigDecimal(10)));
+    assertThat(this.accountsService.getAccount(first).getBalance()).isEqualByComparingTo("0");
+    assertThat(this.accountsService.getAccount(second).getBalance()).isEqualByComparingTo("20");
+  }
+
+  @Test
+  public void exportIsNotImplemented() throws Exception {
+    webAppContextSetup(this.webApplicationContext).build()
+        .perform(get("/v1/accounts/export").accept("application/x-ndjson")).andExpect(status().isNotImplemented());
+
+    // like on tomcat, closing the output stream commits the response
+    MockHttpServletResponse response = new MockHttpServletResponse() {
+      @Override
+      public ServletOutputStream getOutputStream() {
+        return new DelegatingServletOutputStream(super.getOutputStream()) {
+          @Override
+          public void close() throws IOException {
+            super.close();
+            setCommitted(true);
+          }
+        };
+      }
+    };
+    this.accountsController.exportAccounts(new MockHttpServletRequest(), response);
+    assertThat(response.getStatus()).isEqualTo(501);
+    assertThat(response.getErrorMessage()).isEqualTo("consistent export is not supported by AccountsRepositorySharded");
+  }
+
+  private long metric(String name) {
+    return transferMetrics.metrics().stream().filter(metric -> metric.getName().equals(name)).findFirst()
+        .map(metric -> metric.getValue().longValue()).orElseThrow(() -> new AssertionError("no metric " + name));
+  }
+}
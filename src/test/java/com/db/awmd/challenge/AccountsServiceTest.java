@@ -4,9 +4,24 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.AccountNotExistException;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 import com.db.awmd.challenge.service.AccountsService;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,12 +29,15 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = { "accounts.hot.ids=Id-Hot,Id-Hot-Legs", "accounts.hot.shards=4" })
 public class AccountsServiceTest {
 
   @Autowired
   private AccountsService accountsService;
 
+  @Autowired
+  private TransferMetrics transferMetrics;
+
   @Test
   public void addAccount() throws Exception {
     Account account = new Account("Id-123");
@@ -29,6 +47,17 @@ public class AccountsServiceTest {
     assertThat(this.accountsService.getAccount("Id-123")).isEqualTo(account);
   }
 
+  @Test
+  public void getAccount_returnsDetachedSnapshot() throws Exception {
+    String accountId = "Id-D-" + System.nanoTime();
+    this.accountsService.createAccount(new Account(accountId, new BigDecimal(10)));
+
+    Account snapshot = this.accountsService.getAccount(accountId);
+    snapshot.setBalance(new BigDecimal(1000));
+
+    assertThat(this.accountsService.getAccount(accountId).getBalance()).isEqualByComparingTo("10");
+  }
+
   @Test
   public void addAccount_failsOnDuplicateId() throws Exception {
     String uniqueId = "Id-" + System.currentTimeMillis();
@@ -43,4 +72,208 @@ public class AccountsServiceTest {
     }
 
   }
+
+  @Test
+  public void performTransaction_concurrentOppositeTransfersKeepTotal() throws Exception {
+    String first = "Id-A-" + System.nanoTime();
+    String second = "Id-B-" + System.nanoTime();
+    this.accountsService.createAccount(new Account(first, new BigDecimal(1000)));
+    this.accountsService.createAccount(new Account(second, new BigDecimal(1000)));
+
+    // transfers in both directions at once would deadlock if the two accounts were locked in call order
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 400; i++) {
+      UserTransaction transaction = i % 2 == 0
+          ? new UserTransaction(first, second, BigDecimal.ONE)
+          : new UserTransaction(second, first, BigDecimal.ONE);
+      futures.add(executor.submit(() -> this.accountsService.performTransaction(transaction)));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    assertThat(this.accountsService.getAccount(first).getBalance()).isEqualByComparingTo("1000");
+    assertThat(this.accountsService.getAccount(second).getBalance()).isEqualByComparingTo("1000");
+  }
+
+  @Test
+  public void performTransaction_hotAccountKeepsTotalAcrossShards() throws Exception {
+    String other = "Id-C-" + System.nanoTime();
+    this.accountsService.createAccount(new Account("Id-Hot", new BigDecimal(1000)));
+    this.accountsService.createAccount(new Account(other, BigDecimal.ZERO));
+
+    // credits and debits spread over the shards of the hot account
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 400; i++) {
+      UserTransaction transaction = i % 2 == 0
+          ? new UserTransaction("Id-Hot", other, BigDecimal.ONE)
+          : new UserTransaction(other, "Id-Hot", BigDecimal.ONE);
+      futures.add(executor.submit(() -> {
+        try {
+          this.accountsService.performTransaction(transaction);
+        } catch (BalanceNotSufficientException ex) {
+          // the other account may be empty when a credit back overtakes its debit
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    BigDecimal hotBalance = this.accountsService.getAccount("Id-Hot").getBalance();
+    assertThat(hotBalance.add(this.accountsService.getAccount(other).getBalance())).isEqualByComparingTo("1000");
+
+    // the whole balance can only be taken by borrowing across all shards
+    this.accountsService.performTransaction(new UserTransaction("Id-Hot", other, hotBalance));
+    assertThat(this.accountsService.getAccount("Id-Hot").getBalance()).isEqualByComparingTo("0");
+    try {
+      this.accountsService.performTransaction(new UserTransaction("Id-Hot", other, new BigDecimal("0.01")));
+      fail("Should have failed for insufficient balance");
+    } catch (BalanceNotSufficientException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void performMultiLegTransaction_appliesAllLegsOrNone() throws Exception {
+    String payer = "Id-P-" + System.nanoTime();
+    List<MultiLegTransaction.Leg> legs = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      this.accountsService.createAccount(new Account(payer + "-" + i, BigDecimal.ZERO));
+      legs.add(new MultiLegTransaction.Leg(payer + "-" + i, new BigDecimal("2.5")));
+    }
+    this.accountsService.createAccount(new Account(payer, new BigDecimal(100)));
+    // the hot account is credited on one shard and debited across all of them
+    legs.add(new MultiLegTransaction.Leg("Id-Hot-Legs", BigDecimal.ONE));
+    this.accountsService.createAccount(new Account("Id-Hot-Legs", BigDecimal.ZERO));
+
+    // fan-outs and fan-ins on the same accounts at once
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      MultiLegTransaction transaction = i % 2 == 0
+          ? new MultiLegTransaction(payer, null, legs)
+          : new MultiLegTransaction(null, payer, legs);
+      futures.add(executor.submit(() -> {
+        try {
+          this.accountsService.performMultiLegTransaction(transaction);
+        } catch (BalanceNotSufficientException ex) {
+          // a fan-in may overtake the fan-out that funds it
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    BigDecimal total = this.accountsService.getAccount(payer).getBalance()
+        .add(this.accountsService.getAccount("Id-Hot-Legs").getBalance());
+    for (int i = 0; i < 4; i++) {
+      total = total.add(this.accountsService.getAccount(payer + "-" + i).getBalance());
+    }
+    assertThat(total).isEqualByComparingTo("100");
+
+    // one leg too many for the balance or one unknown account and nothing moves
+    BigDecimal payerBalance = this.accountsService.getAccount(payer).getBalance();
+    List<MultiLegTransaction.Leg> tooMuch = new ArrayList<>(legs);
+    tooMuch.add(new MultiLegTransaction.Leg(payer + "-0", payerBalance));
+    try {
+      this.accountsService.performMultiLegTransaction(new MultiLegTransaction(payer, null, tooMuch));
+      fail("Should have failed for insufficient balance");
+    } catch (BalanceNotSufficientException ex) {
+      assertThat(ex.getMessage()).isEqualTo("balance is not sufficient in account id = " + payer);
+    }
+    List<MultiLegTransaction.Leg> unknown = new ArrayList<>(legs);
+    unknown.add(new MultiLegTransaction.Leg(payer + "-missing", BigDecimal.ONE));
+    try {
+      this.accountsService.performMultiLegTransaction(new MultiLegTransaction(payer, null, unknown));
+      fail("Should have failed for a missing account");
+    } catch (AccountNotExistException ex) {
+      // expected
+    }
+    assertThat(this.accountsService.getAccount(payer).getBalance()).isEqualByComparingTo(payerBalance);
+  }
+
+  @Test
+  public void performTransaction_rejectionsAreCounted() throws Exception {
+    String accountId = "Id-M-" + System.nanoTime();
+    this.accountsService.createAccount(new Account(accountId, new BigDecimal(10)));
+
+    long insufficientBefore = metric("transfers.rejected.insufficient-balance");
+    long notFoundBefore = metric("transfers.rejected.account-not-found");
+    long transfersBefore = metric("transfers.count");
+
+    try {
+      this.accountsService.performTransaction(new UserTransaction(accountId, accountId, new BigDecimal(11)));
+      fail("Should have failed for insufficient balance");
+    } catch (BalanceNotSufficientException ex) {
+      // expected
+    }
+    try {
+      this.accountsService.performTransaction(new UserTransaction(accountId, "Id-missing", BigDecimal.ONE));
+      fail("Should have failed for a missing account");
+    } catch (AccountNotExistException ex) {
+      // expected
+    }
+
+    assertThat(metric("transfers.rejected.insufficient-balance")).isEqualTo(insufficientBefore + 1);
+    assertThat(metric("transfers.rejected.account-not-found")).isEqualTo(notFoundBefore + 1);
+    assertThat(metric("transfers.count")).isEqualTo(transfersBefore + 2);
+  }
+
+  @Test
+  public void exportAccounts_seesOneInstantWhileTransfersRun() throws Exception {
+    String prefix = "Id-E-" + System.nanoTime() + "-";
+    int accounts = 50;
+    for (int i = 0; i < accounts; i++) {
+      this.accountsService.createAccount(new Account(prefix + i, new BigDecimal(100)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    AtomicBoolean running = new AtomicBoolean(true);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 4; thread++) {
+      futures.add(executor.submit(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running.get()) {
+          try {
+            this.accountsService.performTransaction(new UserTransaction(prefix + random.nextInt(accounts),
+                prefix + random.nextInt(accounts), new BigDecimal(random.nextInt(1, 50))));
+          } catch (BalanceNotSufficientException ex) {
+            // fine, only the total matters
+          }
+        }
+      }));
+    }
+
+    // a slow reader lets plenty of transfers hit accounts that are not exported yet
+    for (int round = 0; round < 3; round++) {
+      AtomicLong total = new AtomicLong();
+      AtomicLong exported = new AtomicLong();
+      this.accountsService.exportAccounts((accountId, minorBalance) -> {
+        if (accountId.startsWith(prefix)) {
+          total.addAndGet(minorBalance);
+          exported.incrementAndGet();
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+      });
+      assertThat(exported.get()).isEqualTo(accounts);
+      assertThat(total.get()).isEqualTo(accounts * 100 * 100L);
+    }
+    running.set(false);
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+  }
+
+  private long metric(String name) {
+    return transferMetrics.metrics().stream().filter(metric -> metric.getName().equals(name)).findFirst()
+        .map(metric -> metric.getValue().longValue()).orElseThrow(() -> new AssertionError("no metric " + name));
+  }
 }
@@ -0,0 +1,123 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.web.AdmissionControlFilter;
+import com.db.awmd.challenge.web.ConcurrencyLimiter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class AdmissionControlTest {
+
+  @Test
+  public void limiterShrinksWhenLatencyClimbsAndGrowsBackUnderSteadyLoad() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, 10, 1000, 2.0);
+    load(limiter, 2000, Integer.MAX_VALUE, 1_000_000);
+    assertThat(limiter.getLimit()).isGreaterThan(100);
+
+    // ten times the usual latency, the queue is building up
+    int grown = limiter.getLimit();
+    load(limiter, 320, Integer.MAX_VALUE, 10_000_000);
+    assertThat(limiter.getLimit()).isLessThan(grown * 2 / 3);
+
+    int shrunk = limiter.getLimit();
+    load(limiter, 2000, Integer.MAX_VALUE, 1_000_000);
+    assertThat(limiter.getLimit()).isGreaterThan(shrunk);
+  }
+
+  @Test
+  public void limiterKeepsLimitWhenMostlyIdle() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, 10, 1000, 2.0);
+    load(limiter, 2000, 1, 1_000_000);
+    assertThat(limiter.getLimit()).isEqualTo(100);
+  }
+
+  @Test
+  public void filterRejectsTransfersOverTheLimitButNotReads() throws Exception {
+    AdmissionControlFilter filter = new AdmissionControlFilter(true, 3, 2.0, 1, 1, 1, 1, 1, 1, 1, 1, 1);
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<?> held = executor.submit(() -> {
+      filter.doFilter(new MockHttpServletRequest("POST", "/v1/accounts/transaction"), new MockHttpServletResponse(),
+          (request, response) -> {
+            entered.countDown();
+            try {
+              release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+      return null;
+    });
+    assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+
+    MockHttpServletResponse rejected = new MockHttpServletResponse();
+    filter.doFilter(new MockHttpServletRequest("POST", "/v1/accounts/transaction"), rejected,
+        (request, response) -> { });
+    assertThat(rejected.getStatus()).isEqualTo(503);
+    assertThat(rejected.getHeader("Retry-After")).isEqualTo("3");
+
+    // reads have their own budget
+    MockHttpServletResponse read = new MockHttpServletResponse();
+    filter.doFilter(new MockHttpServletRequest("GET", "/v1/accounts/Id-1"), read, (request, response) -> { });
+    assertThat(read.getStatus()).isEqualTo(200);
+
+    release.countDown();
+    held.get(10, TimeUnit.SECONDS);
+    executor.shutdown();
+    MockHttpServletResponse admitted = new MockHttpServletResponse();
+    filter.doFilter(new MockHttpServletRequest("POST", "/v1/accounts/transaction"), admitted,
+        (request, response) -> { });
+    assertThat(admitted.getStatus()).isEqualTo(200);
+  }
+
+  @Test
+  public void bulkAndAsyncTransfersAreLimitedOnTheirOwn() throws Exception {
+    AdmissionControlFilter filter = new AdmissionControlFilter(true, 1, 2.0, 1, 1, 1, 1, 1, 1, 1, 1, 1);
+
+    // an async transfer keeps its place until the response is complete
+    MockHttpServletRequest async = new MockHttpServletRequest("POST", "/v1/async/accounts/transaction");
+    async.setAsyncSupported(true);
+    filter.doFilter(async, new MockHttpServletResponse(), (request, response) -> request.startAsync());
+
+    MockHttpServletResponse rejected = new MockHttpServletResponse();
+    filter.doFilter(new MockHttpServletRequest("POST", "/v1/accounts/transaction"), rejected,
+        (request, response) -> { });
+    assertThat(rejected.getStatus()).isEqualTo(503);
+
+    // batches, multi-leg and netted transfers do not share the budget of single transfers
+    for (String path : new String[] { "/v1/accounts/transactions/batch", "/v1/accounts/transactions/multi-leg",
+        "/v1/accounts/transactions/netted" }) {
+      MockHttpServletResponse admitted = new MockHttpServletResponse();
+      filter.doFilter(new MockHttpServletRequest("POST", path), admitted, (request, response) -> { });
+      assertThat(admitted.getStatus()).isEqualTo(200);
+    }
+
+    async.getAsyncContext().complete();
+    MockHttpServletResponse admitted = new MockHttpServletResponse();
+    filter.doFilter(new MockHttpServletRequest("POST", "/v1/accounts/transaction"), admitted,
+        (request, response) -> { });
+    assertThat(admitted.getStatus()).isEqualTo(200);
+  }
+
+  private static void load(ConcurrencyLimiter limiter, int samples, int concurrency, long latencyNanos) {
+    int admitted = 0;
+    for (int i = 0; i < samples; i++) {
+      while (admitted < concurrency && limiter.tryAcquire()) {
+        admitted++;
+      }
+      limiter.release(latencyNanos);
+      admitted--;
+    }
+    for (; admitted > 0; admitted--) {
+      limiter.release(latencyNanos);
+    }
+  }
+}
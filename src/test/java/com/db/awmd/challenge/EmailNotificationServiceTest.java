@@ -2,6 +2,7 @@ package com.db.awmd.challenge;
 
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -76,7 +77,8 @@ public class EmailNotificationServiceTest {
 				.andExpect(status().isOk());
 
 		// verify notification service is called twice - once for ech account
-		verify(notificationService, times(2)).notifyAboutTransfer(isA(Account.class), isA(String.class));
+		// notifications are delivered asynchronously by the dispatcher, so allow it some time
+		verify(notificationService, timeout(2000).times(2)).notifyAboutTransfer(isA(Account.class), isA(String.class));
 
 		// verify balance in account = 111 (accountFromId) should be 500
 		mockMvc.perform(get("/v1/accounts/" + "111")).andExpect(status().isOk())
@@ -0,0 +1,33 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.web.IdempotencyCache;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+public class IdempotencyCacheTest {
+
+  @Test
+  public void runningRequestsAreNeverEvicted() {
+    IdempotencyCache cache = new IdempotencyCache(1, 60, 1);
+    CompletableFuture<ResponseEntity<Object>> running = new CompletableFuture<>();
+    cache.executeAsync("key-1", "first", () -> running);
+
+    // the only slot holds a running request, a new key is turned away instead of evicting it
+    assertThat(cache.execute("key-2", "second", () -> new ResponseEntity<>(HttpStatus.CREATED)).getStatusCode())
+        .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+
+    // a retry of the running request still gets its outcome, not a second execution
+    CompletableFuture<ResponseEntity<Object>> retry = cache.executeAsync("key-1", "first",
+        () -> CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.CONFLICT)));
+    running.complete(new ResponseEntity<>(HttpStatus.CREATED));
+    assertThat(retry.join().getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+    // once finished the entry may make room
+    assertThat(cache.execute("key-2", "second", () -> new ResponseEntity<>(HttpStatus.CREATED)).getStatusCode())
+        .isEqualTo(HttpStatus.CREATED);
+  }
+}
@@ -0,0 +1,100 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.UserTransaction;
+import com.db.awmd.challenge.exception.BalanceNotSufficientException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NettingEngine;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "netting.enabled=true", "netting.settle-interval-ms=600000",
+    "netting.settle-threshold=1000000" })
+public class NettingEngineTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private NettingEngine nettingEngine;
+
+  @Test
+  public void backAndForthTransfersSettleWithOneTransferPerPair() throws Exception {
+    this.accountsService.createAccount(new Account("Id-N-1", new BigDecimal(2000)));
+    this.accountsService.createAccount(new Account("Id-N-2", new BigDecimal(1000)));
+    this.accountsService.createAccount(new Account("Id-N-3", BigDecimal.ZERO));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      UserTransaction transaction = i % 3 == 0 ? new UserTransaction("Id-N-1", "Id-N-2", BigDecimal.ONE)
+          : i % 3 == 1 ? new UserTransaction("Id-N-2", "Id-N-1", new BigDecimal("0.5"))
+          : new UserTransaction("Id-N-1", "Id-N-3", new BigDecimal("0.01"));
+      futures.add(executor.submit(() -> this.nettingEngine.record(transaction)));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    // recorded only, nothing moved yet, the gross amounts must be covered though
+    assertThat(this.accountsService.getAccount("Id-N-1").getBalance()).isEqualByComparingTo("2000");
+
+    assertThat(this.nettingEngine.settle()).isEqualTo(2);
+    // 1000 x 1 to 2, 1000 x 0.5 back, 1000 x 0.01 to 3
+    assertThat(this.accountsService.getAccount("Id-N-1").getBalance()).isEqualByComparingTo("1490");
+    assertThat(this.accountsService.getAccount("Id-N-2").getBalance()).isEqualByComparingTo("1500");
+    assertThat(this.accountsService.getAccount("Id-N-3").getBalance()).isEqualByComparingTo("10");
+    assertThat(this.nettingEngine.settle()).isEqualTo(0);
+  }
+
+  @Test
+  public void unsettledTransfersCountAgainstTheBalance() throws Exception {
+    this.accountsService.createAccount(new Account("Id-N-4", new BigDecimal(10)));
+    this.accountsService.createAccount(new Account("Id-N-5", BigDecimal.ZERO));
+
+    this.nettingEngine.record(new UserTransaction("Id-N-4", "Id-N-5", new BigDecimal(8)));
+    try {
+      this.nettingEngine.record(new UserTransaction("Id-N-4", "Id-N-5", new BigDecimal(3)));
+      fail("Should have failed for insufficient balance");
+    } catch (BalanceNotSufficientException ex) {
+      assertThat(ex.getMessage()).isEqualTo("balance is not sufficient in account id = Id-N-4");
+    }
+
+    // a direct transfer drains the payer before the settlement, the obligation waits for the money
+    this.accountsService.performTransaction(new UserTransaction("Id-N-4", "Id-N-5", new BigDecimal(5)));
+    assertThat(this.nettingEngine.settle()).isEqualTo(0);
+    assertThat(this.accountsService.getAccount("Id-N-4").getBalance()).isEqualByComparingTo("5");
+
+    this.accountsService.performTransaction(new UserTransaction("Id-N-5", "Id-N-4", new BigDecimal(5)));
+    assertThat(this.nettingEngine.settle()).isEqualTo(1);
+    assertThat(this.accountsService.getAccount("Id-N-4").getBalance()).isEqualByComparingTo("2");
+    assertThat(this.accountsService.getAccount("Id-N-5").getBalance()).isEqualByComparingTo("8");
+  }
+
+  @Test
+  public void nettingIsRefusedInJournalMode() {
+    NettingEngine journaled = new NettingEngine(this.accountsService.getAccountsRepository(), true, 1000, 1000, 4,
+        "journal");
+    try {
+      journaled.record(new UserTransaction("Id-N-6", "Id-N-7", BigDecimal.ONE));
+      fail("Should have refused a transfer that is not journaled");
+    } catch (UnsupportedOperationException ex) {
+      assertThat(ex.getMessage()).isEqualTo("netted transfers are not journaled and not offered in journal mode");
+    }
+  }
+}
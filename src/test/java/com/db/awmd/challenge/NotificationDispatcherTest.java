@@ -0,0 +1,111 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.NotificationDispatcher.OverflowPolicy;
+import com.db.awmd.challenge.service.NotificationService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class NotificationDispatcherTest {
+
+  private final Account account = new Account("Id-1");
+
+  private final CountDownLatch delivering = new CountDownLatch(1);
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+  // holds the dispatcher in its first delivery until released
+  private final NotificationService blocking = (account, description) -> {
+    delivering.countDown();
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delivered.add(description);
+  };
+
+  private NotificationDispatcher dispatcher;
+
+  @After
+  public void stopDispatcher() throws InterruptedException {
+    release.countDown();
+    if (dispatcher != null) {
+      dispatcher.stop();
+    }
+  }
+
+  @Test
+  public void dropDiscardsWithoutWaiting() throws Exception {
+    fillQueue(OverflowPolicy.DROP);
+
+    long started = System.nanoTime();
+    dispatcher.publish(account, "3");
+    assertThat(System.nanoTime() - started).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    assertThat(dispatcher.getDroppedCount()).isEqualTo(1);
+
+    release.countDown();
+    awaitDelivered(2);
+    assertThat(delivered).containsExactly("1", "2");
+  }
+
+  @Test
+  public void blockWaitsForRoom() throws Exception {
+    fillQueue(OverflowPolicy.BLOCK);
+
+    Thread publisher = new Thread(() -> dispatcher.publish(account, "3"));
+    publisher.start();
+    publisher.join(200);
+    assertThat(publisher.isAlive()).isTrue();
+
+    release.countDown();
+    publisher.join(TimeUnit.SECONDS.toMillis(5));
+    assertThat(publisher.isAlive()).isFalse();
+    awaitDelivered(3);
+    assertThat(delivered).containsExactly("1", "2", "3");
+    assertThat(dispatcher.getDroppedCount()).isZero();
+  }
+
+  @Test
+  public void spilledNotificationsAreStillDelivered() throws Exception {
+    fillQueue(OverflowPolicy.SPILL);
+
+    dispatcher.publish(account, "3");
+    dispatcher.publish(account, "4");
+    assertThat(dispatcher.getSpilledCount()).isEqualTo(2);
+    assertThat(dispatcher.getQueueDepth()).isEqualTo(3);
+
+    release.countDown();
+    awaitDelivered(4);
+    assertThat(delivered).containsExactly("1", "2", "3", "4");
+    assertThat(dispatcher.getDroppedCount()).isZero();
+  }
+
+  /**
+   * the dispatcher is stuck delivering "1" and the queue of capacity 1 holds "2"
+   */
+  private void fillQueue(OverflowPolicy policy) throws InterruptedException {
+    dispatcher = new NotificationDispatcher(blocking, 1, 1, policy, false);
+    dispatcher.start();
+    dispatcher.publish(account, "1");
+    assertThat(delivering.await(5, TimeUnit.SECONDS)).isTrue();
+    dispatcher.publish(account, "2");
+  }
+
+  private void awaitDelivered(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (delivered.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+}